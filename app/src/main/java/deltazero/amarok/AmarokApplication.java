@@ -3,6 +3,7 @@ package deltazero.amarok;
 import android.app.Application;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.util.Log;
 
 import androidx.appcompat.app.AppCompatDelegate;
 
@@ -11,6 +12,7 @@ import com.rosan.dhizuku.api.Dhizuku;
 
 import deltazero.amarok.receivers.ScreenStatusReceiver;
 import deltazero.amarok.utils.AppCenterUtil;
+import deltazero.amarok.utils.HiderLog;
 import deltazero.amarok.utils.XHidePrefBridge;
 import deltazero.amarok.widget.ToggleWidget;
 import jonathanfinerty.once.Once;
@@ -21,6 +23,10 @@ public class AmarokApplication extends Application {
     public void onCreate() {
         super.onCreate();
 
+        // Forward logs of the hider core
+        HiderLog.setSink((priority, tag, msg, tr)
+                -> Log.println(priority, tag, tr == null ? msg : msg + '\n' + Log.getStackTraceString(tr)));
+
         // WARNING: Do not change the order of those initializations.
         XHidePrefBridge.migratePrefsIfNeeded(this);
         PrefMgr.init(this);
@@ -13,6 +13,8 @@ import androidx.lifecycle.MutableLiveData;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
+import deltazero.amarok.filehider.BaseFileHider;
+import deltazero.amarok.filehider.ProgressTracker;
 import deltazero.amarok.ui.settings.SwitchAppHiderActivity;
 import deltazero.amarok.utils.SecurityUtil;
 
@@ -25,6 +27,10 @@ public final class Hider {
 
     public static boolean initialized = false;
     public static MutableLiveData<State> state;
+    /**
+     * Progress of the file hider while {@link State#PROCESSING}, or null if none is reported.
+     */
+    public static MutableLiveData<ProgressTracker.Progress> progress;
 
     public enum State {
         HIDDEN,
@@ -44,6 +50,7 @@ public final class Hider {
     public static void init() {
         assert PrefMgr.initialized;
         state = new MutableLiveData<>(PrefMgr.getIsHidden() ? State.HIDDEN : State.VISIBLE);
+        progress = new MutableLiveData<>(null);
         state.observeForever(state -> {
             if (state != State.PROCESSING)
                 PrefMgr.setIsHidden(state == State.HIDDEN);
@@ -90,10 +97,12 @@ public final class Hider {
                 boolean disableOnly = PrefMgr.isXHideEnabled() && PrefMgr.getDisableOnlyWithXHide();
 
                 PrefMgr.getAppHider(context).hide(PrefMgr.getHideApps(), disableOnly);
-                PrefMgr.getFileHider(context).hide(PrefMgr.getHideFilePath());
+                getFileHider(context).hide(PrefMgr.getHideFilePath());
             } catch (InterruptedException e) {
                 Log.w(TAG, "Process 'hide' interrupted.");
                 return;
+            } finally {
+                progress.postValue(null);
             }
 
             Log.i(TAG, "Process 'hide' finish.");
@@ -129,10 +138,12 @@ public final class Hider {
 
             try {
                 PrefMgr.getAppHider(context).unhide(PrefMgr.getHideApps());
-                PrefMgr.getFileHider(context).unhide(PrefMgr.getHideFilePath());
+                getFileHider(context).unhide(PrefMgr.getHideFilePath());
             } catch (InterruptedException e) {
                 Log.w(TAG, "Process 'unhide' interrupted.");
                 return;
+            } finally {
+                progress.postValue(null);
             }
 
             Log.i(TAG, "Process 'unhide' finish.");
@@ -149,6 +160,13 @@ public final class Hider {
         });
     }
 
+    private static BaseFileHider getFileHider(Context context) {
+        var fileHider = PrefMgr.getFileHider(context);
+        // Read off the main thread, a stale answer only changes how early the totals are known
+        fileHider.setProgressListener(progress::postValue, progress::hasActiveObservers);
+        return fileHider;
+    }
+
     public static void forceUnhide(Context context) {
         if (state.getValue() == State.PROCESSING)
             hiderThread.interrupt();
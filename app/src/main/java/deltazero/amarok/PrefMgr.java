@@ -9,6 +9,7 @@ import android.os.Build;
 import androidx.annotation.Nullable;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import deltazero.amarok.apphider.BaseAppHider;
@@ -21,13 +22,20 @@ import deltazero.amarok.filehider.BaseFileHider;
 import deltazero.amarok.filehider.ChmodFileHider;
 import deltazero.amarok.filehider.NoMediaFileHider;
 import deltazero.amarok.filehider.NoneFileHider;
+import deltazero.amarok.filehider.ObfuscateEngine;
 import deltazero.amarok.filehider.ObfuscateFileHider;
+import deltazero.amarok.filehider.StridedLayout;
+import deltazero.amarok.filehider.TargetIndex;
+import deltazero.amarok.filehider.TargetRules;
+import deltazero.amarok.filehider.VaultFileHider;
 import deltazero.amarok.utils.UpdateUtil;
 
 public final class PrefMgr {
 
     private static SharedPreferences mPrefs;
     private static SharedPreferences.Editor mPrefEditor;
+    @Nullable
+    private static TargetIndex mHideFileTargets;
     public static final String MAIN_PREF_FILENAME = "deltazero.amarok.prefs";
     public static boolean initialized = false;
 
@@ -47,6 +55,7 @@ public final class PrefMgr {
     }
 
     public static final String HIDE_FILE_PATH = "hideFilePath";
+    public static final String HIDE_FILE_RULES_PREFIX = "hideFileRules:";
     public static final String IS_HIDDEN = "isHidden";
     public static final String HIDE_PKG_NAMES = "hidePkgNames";
     public static final String APP_HIDER_MODE = "appHiderMode";
@@ -55,6 +64,11 @@ public final class PrefMgr {
     public static final String ENABLE_OBFUSCATE_FILE_HEADER = "enableObfuscateFileHeader";
     public static final String ENABLE_OBFUSCATE_TEXT_FILE = "enableObfuscateTextFile";
     public static final String ENABLE_OBFUSCATE_TEXT_FILE_ENHANCED = "enableObfuscateTextFileEnhanced";
+    public static final String LAST_OBFUSCATE_HIDE_SETTINGS = "lastObfuscateHideSettings";
+    public static final String OBFUSCATE_HIDE_DEPTH = "obfuscateHideDepth";
+    public static final String LAST_OBFUSCATE_HIDE_DEPTH = "lastObfuscateHideDepth";
+    public static final String OBFUSCATE_STRIDED_BLOCK_KB = "obfuscateStridedBlockKB";
+    public static final String OBFUSCATE_STRIDED_STRIDE_KB = "obfuscateStridedStrideKB";
     public static final String ENABLE_QUICK_HIDE_SERVICE = "enableQuickHideService";
     public static final String ENABLE_PANIC_BUTTON = "enablePanicButton";
     public static final String AMAROK_PASSWORD = "amarokPassword";
@@ -84,9 +98,36 @@ public final class PrefMgr {
         return new HashSet<>(mPrefs.getStringSet(HIDE_FILE_PATH, new HashSet<>()));
     }
 
-    public static void setHideFilePath(Set<String> path) {
+    public static synchronized void setHideFilePath(Set<String> path) {
         mPrefEditor.putStringSet(HIDE_FILE_PATH, path);
         mPrefEditor.apply();
+        mHideFileTargets = null;
+    }
+
+    /**
+     * @return Index of {@link #getHideFilePath()} for overlap checks, built once per change. Do not modify it.
+     */
+    public static synchronized TargetIndex getHideFileTargets() {
+        if (mHideFileTargets == null)
+            mHideFileTargets = new TargetIndex(mPrefs.getStringSet(HIDE_FILE_PATH, Set.of()));
+        return mHideFileTargets;
+    }
+
+    /**
+     * @param path An entry of {@link #getHideFilePath()}.
+     * @return Include and exclude rules of the path, one per line, see {@link TargetRules}.
+     */
+    public static List<String> getHideFileRules(String path) {
+        var rules = mPrefs.getString(HIDE_FILE_RULES_PREFIX + path, "");
+        return rules.isEmpty() ? List.of() : List.of(rules.split("\n"));
+    }
+
+    public static void setHideFileRules(String path, List<String> rules) {
+        if (rules.isEmpty())
+            mPrefEditor.remove(HIDE_FILE_RULES_PREFIX + path);
+        else
+            mPrefEditor.putString(HIDE_FILE_RULES_PREFIX + path, String.join("\n", rules));
+        mPrefEditor.apply();
     }
 
     /**
@@ -147,6 +188,7 @@ public final class PrefMgr {
             case 1 -> new ObfuscateFileHider(context);
             case 2 -> new NoMediaFileHider(context);
             case 3 -> new ChmodFileHider(context);
+            case 4 -> new VaultFileHider(context);
             default -> throw new IndexOutOfBoundsException("Should not reach here");
         };
     }
@@ -161,6 +203,8 @@ public final class PrefMgr {
             modeCode = 2;
         else if (mode == ChmodFileHider.class)
             modeCode = 3;
+        else if (mode == VaultFileHider.class)
+            modeCode = 4;
         else
             throw new IndexOutOfBoundsException("Should not reach here");
         mPrefEditor.putInt(FILE_HIDER_MODE, modeCode);
@@ -203,6 +247,64 @@ public final class PrefMgr {
         mPrefEditor.apply();
     }
 
+    /**
+     * Fingerprint of the obfuscation settings used by the last hide, see {@link ObfuscateEngine#getSettingsFingerprint()}.
+     */
+    public static int getLastObfuscateHideSettings() {
+        return mPrefs.getInt(LAST_OBFUSCATE_HIDE_SETTINGS, -1);
+    }
+
+    public static void setLastObfuscateHideSettings(int settings) {
+        mPrefEditor.putInt(LAST_OBFUSCATE_HIDE_SETTINGS, settings);
+        mPrefEditor.apply();
+    }
+
+    /**
+     * @return Number of directory levels below the targets to be obfuscated,
+     * see {@link ObfuscateEngine#HIDE_DEPTH_UNLIMITED} and {@link ObfuscateEngine#HIDE_DEPTH_TARGET_ONLY}.
+     */
+    public static int getObfuscateHideDepth() {
+        return mPrefs.getInt(OBFUSCATE_HIDE_DEPTH, ObfuscateEngine.HIDE_DEPTH_UNLIMITED);
+    }
+
+    public static void setObfuscateHideDepth(int depth) {
+        mPrefEditor.putInt(OBFUSCATE_HIDE_DEPTH, depth);
+        mPrefEditor.apply();
+    }
+
+    /**
+     * Deepest hide depth since the last unhide, which bounds the next unhide.
+     */
+    public static int getLastObfuscateHideDepth() {
+        return mPrefs.getInt(LAST_OBFUSCATE_HIDE_DEPTH, ObfuscateEngine.HIDE_DEPTH_UNLIMITED);
+    }
+
+    public static void setLastObfuscateHideDepth(int depth) {
+        mPrefEditor.putInt(LAST_OBFUSCATE_HIDE_DEPTH, depth);
+        mPrefEditor.apply();
+    }
+
+    /**
+     * @return Layout of the blocks obfuscated in large files, or null to only obfuscate their header.
+     */
+    @Nullable
+    public static StridedLayout getObfuscateStridedLayout() {
+        int strideKB = mPrefs.getInt(OBFUSCATE_STRIDED_STRIDE_KB, 0);
+        if (strideKB == 0)
+            return null;
+        try {
+            return new StridedLayout(mPrefs.getInt(OBFUSCATE_STRIDED_BLOCK_KB, 0), strideKB);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static void setObfuscateStridedLayout(@Nullable StridedLayout layout) {
+        mPrefEditor.putInt(OBFUSCATE_STRIDED_BLOCK_KB, layout != null ? layout.blockKB() : 0);
+        mPrefEditor.putInt(OBFUSCATE_STRIDED_STRIDE_KB, layout != null ? layout.strideKB() : 0);
+        mPrefEditor.apply();
+    }
+
     public static boolean getEnableQuickHideService() {
         return mPrefs.getBoolean(ENABLE_QUICK_HIDE_SERVICE, false);
     }
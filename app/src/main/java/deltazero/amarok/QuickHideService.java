@@ -15,6 +15,7 @@ import android.view.Gravity;
 import android.widget.ImageView;
 
 import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.lifecycle.LifecycleService;
 
@@ -23,7 +24,9 @@ import com.hjq.permissions.XXPermissions;
 import com.hjq.window.EasyWindow;
 import com.hjq.window.draggable.SpringBackDraggable;
 
+import deltazero.amarok.filehider.ProgressTracker;
 import deltazero.amarok.receivers.ActionReceiver;
+import deltazero.amarok.utils.ProgressUtil;
 
 public class QuickHideService extends LifecycleService {
 
@@ -63,14 +66,7 @@ public class QuickHideService extends LifecycleService {
         super.onStartCommand(intent, flags, startId);
 
         // Start foreground
-        Notification notification =
-                new NotificationCompat.Builder(this, CHANNEL_ID)
-                        .setContentTitle(getText(R.string.quick_hide_notification_title))
-                        .setContentText(getText(R.string.quick_hide_notification_content))
-                        .setSmallIcon(R.drawable.ic_paw)
-                        .setContentIntent(activityPendingIntent)
-                        .setOngoing(true)
-                        .build();
+        Notification notification = buildNotification(null);
 
         if (Build.VERSION.SDK_INT >= 34) {
             startForeground(NOTIFICATION_ID, notification, FOREGROUND_SERVICE_TYPE_SPECIAL_USE);
@@ -97,6 +93,10 @@ public class QuickHideService extends LifecycleService {
         Hider.state.observe(this, state -> updatePanicButton());
         updatePanicButton();
 
+        // Show the hide progress in place of the reminder
+        Hider.progress.observe(this, progress -> getSystemService(NotificationManager.class)
+                .notify(NOTIFICATION_ID, buildNotification(progress)));
+
         Log.i("QuickHideService", "Service start.");
 
         return START_STICKY;
@@ -128,6 +128,24 @@ public class QuickHideService extends LifecycleService {
         context.stopService(new Intent(context, QuickHideService.class));
     }
 
+    private Notification buildNotification(@Nullable ProgressTracker.Progress progress) {
+        var builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_paw)
+                .setContentIntent(activityPendingIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true);
+
+        if (progress == null) {
+            builder.setContentTitle(getText(R.string.quick_hide_notification_title))
+                    .setContentText(getText(R.string.quick_hide_notification_content));
+        } else {
+            builder.setContentTitle(getText(R.string.processing))
+                    .setContentText(ProgressUtil.format(this, progress))
+                    .setProgress(100, ProgressUtil.getPercent(progress), false);
+        }
+        return builder.build();
+    }
+
     private void updatePanicButton() {
         if (!PrefMgr.getEnablePanicButton())
             return;
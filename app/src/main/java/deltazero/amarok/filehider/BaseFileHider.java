@@ -1,12 +1,23 @@
 package deltazero.amarok.filehider;
 
 import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
 
 import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import deltazero.amarok.PrefMgr;
 
 public abstract class BaseFileHider {
 
+    private final static String TAG = "BaseFileHider";
+
     protected final Context context;
+    @Nullable
+    protected ProgressTracker.Listener progressListener;
+    protected BooleanSupplier progressShown = () -> false;
 
     public BaseFileHider(Context context) {
         this.context = context;
@@ -18,16 +29,48 @@ public abstract class BaseFileHider {
 
     public abstract String getName();
 
-    protected enum ProcessMethod {
-        HIDE, UNHIDE
+    /**
+     * Receive the progress of the following hide / unhide runs. Hiders that finish quickly may not report any.
+     *
+     * @param isShown Whether the progress is on screen when a run starts. Hiders may only size a run up front
+     *                then, and otherwise report totals that grow as the run goes.
+     */
+    public void setProgressListener(@Nullable ProgressTracker.Listener listener, BooleanSupplier isShown) {
+        progressListener = listener;
+        progressShown = isShown;
+    }
+
+    /**
+     * Size a hide or unhide of the targets with a dry run, without changing anything.
+     *
+     * @return The plan, or null if the cost of this hider does not depend on the content of the targets.
+     */
+    @Nullable
+    public HidePlan plan(Set<String> targetDirs, ProcessMethod method) throws InterruptedException {
+        return null;
     }
 
     public void hide(Set<String> targetDirs) throws InterruptedException {
-        process(targetDirs, ProcessMethod.HIDE);
+        process(mergeTargets(targetDirs, ProcessMethod.HIDE), ProcessMethod.HIDE);
     }
 
     public void unhide(Set<String> targetDirs) throws InterruptedException {
-        process(targetDirs, ProcessMethod.UNHIDE);
+        process(mergeTargets(targetDirs, ProcessMethod.UNHIDE), ProcessMethod.UNHIDE);
+    }
+
+    /**
+     * Drop the targets inside another one, or aliases of another one, which would otherwise be processed twice.
+     */
+    protected Set<String> mergeTargets(Set<String> targetDirs, ProcessMethod method) {
+        var outermost = new TargetIndex(targetDirs).getOutermost();
+        if (outermost.size() < targetDirs.size()) {
+            Log.w(TAG, String.format("Merged nested targets %s into %s", targetDirs, outermost));
+            for (var dir : targetDirs) {
+                if (!outermost.contains(dir) && !PrefMgr.getHideFileRules(dir).isEmpty())
+                    Log.w(TAG, "Hide rules of nested target are not applied: " + dir);
+            }
+        }
+        return outermost;
     }
 
     public interface ActivationCallbackListener {
@@ -1,16 +1,35 @@
 package deltazero.amarok.filehider;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import android.content.Context;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import deltazero.amarok.utils.MediaStoreHelper;
 
+/**
+ * Hide folders from the media store by dropping a {@code .nomedia} into them.
+ * <p>
+ * Many galleries keep showing the media until the rows are updated, so hiding also purges the targets:
+ * the media rows below them are queried at once and exactly these files rescanned, which drops them
+ * under the new {@code .nomedia}. The purged files are recorded, so that unhide rescans only those.
+ */
 public class NoMediaFileHider extends BaseFileHider {
 
     private static final String TAG = "NoMediaFileHider";
+    private static final String PURGED_FILENAME = "nomedia_purged";
 
     public NoMediaFileHider(Context context) {
         super(context);
@@ -51,7 +70,101 @@ public class NoMediaFileHider extends BaseFileHider {
             }
         }
 
-        MediaStoreHelper.scan(context, targetDirs);
+        if (method == ProcessMethod.HIDE)
+            purge(targetDirs);
+        else
+            restore(targetDirs);
+    }
+
+    /**
+     * Rescan the media files below the targets, after their {@code .nomedia} has been added.
+     */
+    private void purge(Set<String> targetDirs) {
+        long startNanos = System.nanoTime();
+        var rows = MediaStoreHelper.queryMediaUnder(context, targetDirs);
+        if (rows == null) {
+            MediaStoreHelper.scan(context, targetDirs);
+            return;
+        }
+        long queryNanos = System.nanoTime() - startNanos;
+
+        var present = new ArrayList<String>(rows.size());
+        var missing = new ArrayList<String>();
+        for (var path : rows) {
+            var file = new File(path);
+            if (file.isFile())
+                present.add(path);
+            else if (!file.exists())
+                missing.add(path);
+        }
+        MediaStoreHelper.deleteRowsOfMissing(context, missing, List.of());
+        MediaStoreHelper.scan(context, present);
+
+        var purged = readPurged();
+        purged = purged != null ? purged : new LinkedHashSet<>();
+        purged.addAll(present);
+        writePurged(purged);
+
+        Log.i(TAG, String.format("Purged %d media rows below %d targets in %d ms (query %d ms), %d stale rows deleted",
+                present.size(), targetDirs.size(), (System.nanoTime() - startNanos) / 1000000,
+                queryNanos / 1000000, missing.size()));
+    }
+
+    /**
+     * Rescan the files purged below the targets, after their {@code .nomedia} has been removed.
+     */
+    private void restore(Set<String> targetDirs) {
+        var purged = readPurged();
+        if (purged == null) {
+            // Hidden by an older version, nothing recorded
+            MediaStoreHelper.scan(context, targetDirs);
+            return;
+        }
+
+        var targets = new TargetIndex(targetDirs);
+        var paths = new ArrayList<String>();
+        var remaining = new LinkedHashSet<String>();
+        for (var path : purged) {
+            if (targets.findContaining(path) == null)
+                remaining.add(path);
+            else if (new File(path).isFile())
+                paths.add(path);
+        }
+        MediaStoreHelper.scan(context, paths);
+        if (remaining.isEmpty())
+            // noinspection ResultOfMethodCallIgnored
+            getPurgedFile().toFile().delete();
+        else
+            writePurged(remaining);
+        Log.i(TAG, String.format("Rescanning %d purged files below %d targets", paths.size(), targetDirs.size()));
+    }
+
+    /**
+     * @return Paths of the purged files not restored yet, or null if none were recorded.
+     */
+    @Nullable
+    private Set<String> readPurged() {
+        var file = getPurgedFile();
+        if (!Files.isRegularFile(file))
+            return null;
+        try {
+            return new LinkedHashSet<>(Files.readAllLines(file, UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read purged files: ", e);
+            return null;
+        }
+    }
+
+    private void writePurged(Set<String> paths) {
+        try {
+            Files.write(getPurgedFile(), paths, UTF_8);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to record purged files: ", e);
+        }
+    }
+
+    private Path getPurgedFile() {
+        return context.getFilesDir().toPath().resolve(PURGED_FILENAME);
     }
 
     @Override
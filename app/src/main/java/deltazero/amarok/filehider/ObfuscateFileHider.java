@@ -1,301 +1,193 @@
 package deltazero.amarok.filehider;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static deltazero.amarok.filehider.BaseFileHider.ProcessMethod.HIDE;
-import static deltazero.amarok.filehider.BaseFileHider.ProcessMethod.UNHIDE;
-
 import android.content.Context;
-import android.util.Base64;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import deltazero.amarok.PrefMgr;
-import deltazero.amarok.utils.FileHiderUtil;
 import deltazero.amarok.utils.MediaStoreHelper;
+import deltazero.amarok.utils.SDCardUtil;
 
 public class ObfuscateFileHider extends BaseFileHider {
-    private final static String TAG = "FileHider";
-
-    private final static int MAX_PROCESS_WHOLE_FILE_SIZE_KB = 10 * 1024; // In KB.
-    private final static int MAX_PROCESS_ENHANCED_WHOLE_FILE_SIZE_KB = 30 * 1024;
-    private final static int BASE64_TAG = Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING;
 
-    public final static String FILENAME_NO_PROCESS_MARK = "!amk";
-    public final static String FILENAME_FULL_PROCESS_MARK = "!amk1";
-    public final static String FILENAME_HEADER_PROCESS_MARK = "!amk2";
+    private static final String TAG = "ObfuscateFileHider";
 
     public boolean processHeader;
     public boolean processTextFile;
     public boolean processTextFileEnhanced;
+    @Nullable
+    public StridedLayout stridedLayout;
+    /**
+     * Number of folder levels below the targets to be obfuscated,
+     * or {@link ObfuscateEngine#HIDE_DEPTH_UNLIMITED} / {@link ObfuscateEngine#HIDE_DEPTH_TARGET_ONLY}.
+     */
+    public int hideDepth;
 
     public ObfuscateFileHider(Context context) {
         super(context);
         processHeader = PrefMgr.getEnableObfuscateFileHeader();
         processTextFile = PrefMgr.getEnableObfuscateTextFile();
         processTextFileEnhanced = PrefMgr.getEnableObfuscateTextFileEnhanced();
+        stridedLayout = PrefMgr.getObfuscateStridedLayout();
+        hideDepth = PrefMgr.getObfuscateHideDepth();
     }
 
     @Override
     protected void process(Set<String> targetDirs, ProcessMethod method) throws InterruptedException {
-        for (var dir : targetDirs) {
-            try {
-                processTree(Paths.get(dir), method);
-            } catch (InterruptedException e) {
-                throw new InterruptedException();
-            } catch (Exception e) {
-                Log.w(TAG, String.format("Failed to process %s: ", dir), e);
-            }
+        var roots = toPaths(targetDirs);
+        var engine = createEngine(targetDirs);
+        if (progressListener != null)
+            engine.setProgressListener(progressListener);
+
+        int depth = getDepth(method), settings = getSettings(engine, method);
+        if (method == ProcessMethod.HIDE) {
+            // A hide over a hidden tree may go less deep than the one before, whose files must still be unhidden
+            PrefMgr.setLastObfuscateHideDepth(getDeeper(PrefMgr.getLastObfuscateHideDepth(), depth));
+            PrefMgr.setLastObfuscateHideSettings(settings);
         }
-        MediaStoreHelper.scan(context, targetDirs);
-    }
 
-    @Override
-    public void tryToActive(ActivationCallbackListener activationCallbackListener) {
-        activationCallbackListener.onActivateCallback(this.getClass(), true, 0);
-    }
+        // The dry run lists the trees once for both the progress totals and the executor.
+        // With no progress on screen, the walk lists the trees by itself and the totals grow as it goes.
+        var plan = progressListener != null && progressShown.getAsBoolean()
+                ? engine.plan(roots, method, depth, settings, true) : null;
+        engine.process(roots, method, depth, settings, plan);
+        // Entries left hidden by a failure may be as deep as the last hide went, so keep its depth for the next unhide
+        if (method == ProcessMethod.UNHIDE) {
+            long numFailures = engine.getNumFailures();
+            if (numFailures == 0)
+                PrefMgr.setLastObfuscateHideDepth(ObfuscateEngine.HIDE_DEPTH_TARGET_ONLY);
+            else
+                Log.w(TAG, String.format("Unhide failed on %d entries, keep the last hide depth", numFailures));
+        }
 
-    @Override
-    public String getName() {
-        return "Obfuscate";
+        MediaStoreHelper.reconcile(context, engine.getChanges(), targetDirs);
     }
 
-    private void processTree(Path targetDir, ProcessMethod method) throws InterruptedException {
-
-        Log.i(TAG, "Start to process file tree: " + targetDir);
-
-        try {
-
-            Files.walkFileTree(targetDir, new SimpleFileVisitor<>() {
-
-                @Override
-                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
-
-                    // Handle interruption
-                    if (Thread.currentThread().isInterrupted()) {
-                        Log.w(TAG, "File process interrupted.");
-                        return FileVisitResult.TERMINATE;
-                    }
-
-                    // Skip .nomedia
-                    if (path.getFileName().toString().equals(".nomedia"))
-                        return FileVisitResult.CONTINUE;
-
-                    // Check whether the whole file should be processed before renaming (processFilename).
-                    boolean shouldProcessHeader = checkShouldProcessHeader(path, method);
-                    boolean shouldProcessWhole = checkShouldProcessWhole(path, method);
-
-                    // Choose filename ending mark
-                    String endingMark = FILENAME_NO_PROCESS_MARK;
-                    if (shouldProcessHeader)
-                        endingMark = FILENAME_HEADER_PROCESS_MARK;
-                    if (shouldProcessWhole)
-                        endingMark = FILENAME_FULL_PROCESS_MARK;
-
-                    // Process filename
-                    // TODO: 2023/1/9 Handle long filename that invalid to android after Base64 encode
-                    Path newPath = processFilename(path, method, endingMark);
-
-                    // Process file content
-                    if (newPath != null) {
-                        if (shouldProcessWhole) { // Check shouldProcessWhole first.
-                            processWholeFile(newPath);
-                        } else if (shouldProcessHeader) { // Then check shouldProcessHeader.
-                            processFileHeader(newPath);
-                        }
-                    }
-
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
-                    if (dir != targetDir)
-                        processFilename(dir, method, FILENAME_NO_PROCESS_MARK);
-                    return FileVisitResult.CONTINUE;
-                }
-
-            });
-
-        } catch (IOException e) {
-            Log.w(TAG, String.format("While processing '%s': %s", targetDir.getFileName(), e));
-        }
-
-        // Clear interrupted flag & throw InterruptedException
-        if (Thread.interrupted()) {
-            throw new InterruptedException();
-        }
+    @Override
+    public HidePlan plan(Set<String> targetDirs, ProcessMethod method) throws InterruptedException {
+        targetDirs = mergeTargets(targetDirs, method);
+        var engine = createEngine(targetDirs);
+        return engine.plan(toPaths(targetDirs), method, getDepth(method), getSettings(engine, method), false);
     }
 
     /**
-     * Process the Filename and check if the process succeeds.
-     *
-     * @param path            The path to be processed.
-     * @param method          Process method.
-     * @param extraEndingMark (only effective when `HIDE`) Extra mark to be append to the end of the filename.
-     * @return If the process succeeds, return the new path. Otherwise, return null.
+     * Keep the nested targets that have rules, or are inside a target that has rules, as targets of
+     * their own, so that each is hidden by its own rules. The folders leading to them keep their names.
      */
-    @Nullable
-    private Path processFilename(Path path, ProcessMethod method, String extraEndingMark) {
-        String filename = path.getFileName().toString();
-        String newFilename = null;
-        Path newPath;
+    @Override
+    protected Set<String> mergeTargets(Set<String> targetDirs, ProcessMethod method) {
+        if (getDepth(method) == ObfuscateEngine.HIDE_DEPTH_TARGET_ONLY)
+            return super.mergeTargets(targetDirs, method);
 
-        boolean hasEncoded = FileHiderUtil.checkIsMarkInFilename(filename);
+        // Aliases of a target are still dropped
+        var index = new TargetIndex();
+        var canonicalPaths = new HashMap<String, Path>();
+        for (var dir : targetDirs) {
+            if (index.add(dir))
+                canonicalPaths.put(dir, Paths.get(TargetIndex.canonicalize(dir)));
+        }
 
-        if (method == HIDE) {
-            if (hasEncoded) {
-                Log.d(TAG, "Found encoded name: " + filename + ", skip...");
-                return null;
+        var merged = new HashSet<String>();
+        for (var e : canonicalPaths.entrySet()) {
+            var dir = e.getKey();
+            boolean nested = false, hasRules = hasRules(dir);
+            for (var outer : canonicalPaths.entrySet()) {
+                if (outer.getValue().equals(e.getValue()) || !e.getValue().startsWith(outer.getValue()))
+                    continue;
+                nested = true;
+                hasRules |= hasRules(outer.getKey());
             }
+            if (!nested || hasRules)
+                merged.add(dir);
+        }
+        if (merged.size() < targetDirs.size())
+            Log.w(TAG, String.format("Merged nested targets %s into %s", targetDirs, merged));
+        return merged;
+    }
 
-            newFilename = "." + Base64.encodeToString(filename.getBytes(UTF_8), BASE64_TAG) + extraEndingMark;
-            Log.d(TAG, "Encode: " + path + " -> " + newFilename);
+    private static boolean hasRules(String dir) {
+        return !PrefMgr.getHideFileRules(dir).isEmpty();
+    }
 
-        } else if (method == UNHIDE) {
-            if (!hasEncoded) {
-                Log.w(TAG, "Found not coded name: " + filename + ", skip...");
-                return null;
-            }
+    private ObfuscateEngine createEngine(Set<String> targetDirs) {
+        var engine = new ObfuscateEngine(context.getFilesDir());
+        engine.processHeader = processHeader;
+        engine.processTextFile = processTextFile;
+        engine.processTextFileEnhanced = processTextFileEnhanced;
+        engine.stridedLayout = stridedLayout;
+        engine.setVolumeRoots(getVolumeRoots());
+        engine.setTargetRules(getTargetRules(targetDirs));
+        return engine;
+    }
 
+    private static Map<Path, TargetRules> getTargetRules(Set<String> targetDirs) {
+        var targetRules = new HashMap<Path, TargetRules>();
+        for (var dir : targetDirs) {
+            var lines = PrefMgr.getHideFileRules(dir);
+            if (lines.isEmpty())
+                continue;
             try {
-                newFilename = new String(
-                        Base64.decode(FileHiderUtil.stripFilenameExtras(filename), BASE64_TAG), UTF_8
-                );
+                var rules = TargetRules.compile(lines);
+                if (!rules.isEmpty())
+                    targetRules.put(Paths.get(dir), rules);
             } catch (IllegalArgumentException e) {
-                Log.w(TAG, "Unable to decode: " + filename);
-                return null;
+                // Rules are checked when they are set, so this only happens to rules set by another version
+                Log.w(TAG, "Ignore invalid rules of " + dir, e);
             }
-
-            Log.d(TAG, "Decode: " + path + " -> " + newFilename);
-        }
-
-        // Try to rename.
-
-        assert newFilename != null;
-        newPath = Paths.get(path.getParent().toString(), newFilename);
-
-        boolean is_succeeded = path.toFile().renameTo(newPath.toFile());
-
-        if (!is_succeeded) {
-            Log.w(TAG, "Error when renaming file: " + path + " -> " + newPath);
-            return null;
-        } else {
-            return newPath;
         }
+        return targetRules;
     }
 
-    private void processFileHeader(Path path) {
-        Log.d(TAG, "Processing file header: " + path);
-
+    /**
+     * @return Mount points of the internal storage and the SD cards.
+     */
+    private List<Path> getVolumeRoots() {
         try {
-
-            File file = path.toFile();
-
-            // Preserve original lastModified time
-            var lastModified = path.toFile().lastModified();
-
-            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
-
-                byte[] bytes = new byte[8];
-                int numBytesRead = randomAccessFile.read(bytes);
-                int numBytesToReplace = Math.max(Math.min(numBytesRead, 8), 0);
-
-                for (int i = 0; i < numBytesToReplace; i++) {
-                    bytes[i] = (byte) ~bytes[i];
-                }
-
-                randomAccessFile.seek(0);
-                randomAccessFile.write(bytes, 0, numBytesToReplace);
-
-            } catch (IOException e) {
-                Log.w(TAG, "processFileHeader failed: ", e);
-            }
-
-            // noinspection ResultOfMethodCallIgnored
-            file.setLastModified(lastModified);
-
-        } catch (SecurityException e) {
-            Log.w(TAG, "processFileHeader failed: ", e);
+            var volumePaths = SDCardUtil.getSdCardPaths(context, true);
+            if (volumePaths != null)
+                return volumePaths.stream().map(Paths::get).collect(Collectors.toList());
+        } catch (Exception e) {
+            Log.e(TAG, "Get volume paths failed", e);
         }
+        return List.of();
     }
 
-    private void processWholeFile(Path path) {
-        Log.d(TAG, "Processing whole file: " + path);
-
-        byte[] buffer = new byte[1024];
-        long numReadLoops = 0;
-        int numBytesRead, numBytesToReplace;
-
-        try {
-
-            File file = path.toFile();
-
-            // Preserve original lastModified time
-            var lastModified = path.toFile().lastModified();
-
-            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
-                while ((numBytesRead = randomAccessFile.read(buffer)) != -1) {
-
-                    numBytesToReplace = Math.max(Math.min(numBytesRead, buffer.length), 0);
-
-                    for (int i = 0; i < numBytesToReplace; i++) {
-                        buffer[i] = (byte) ~buffer[i];
-                    }
-
-                    randomAccessFile.seek(numReadLoops * buffer.length);
-                    randomAccessFile.write(buffer, 0, numBytesToReplace);
-
-                    numReadLoops++;
-                }
-            } catch (IOException e) {
-                Log.w(TAG, "processWholeFile failed: ", e);
-            }
-
-            // noinspection ResultOfMethodCallIgnored
-            file.setLastModified(lastModified);
-
-        } catch (SecurityException e) {
-            Log.w(TAG, "processWholeFile failed: ", e);
-        }
+    // Unhide as deep as the last hide went, whatever the current settings are.
+    private int getDepth(ProcessMethod method) {
+        return method == ProcessMethod.HIDE ? hideDepth : PrefMgr.getLastObfuscateHideDepth();
     }
 
-    private boolean checkShouldProcessWhole(Path path, ProcessMethod method) {
-
-        if ((!processHeader) || (!processTextFile)) {
-            return false;
-        }
+    private static int getDeeper(int depth, int otherDepth) {
+        if (depth == ObfuscateEngine.HIDE_DEPTH_UNLIMITED || otherDepth == ObfuscateEngine.HIDE_DEPTH_UNLIMITED)
+            return ObfuscateEngine.HIDE_DEPTH_UNLIMITED;
+        return Math.max(depth, otherDepth);
+    }
 
-        String filename = path.getFileName().toString();
-        if (method == HIDE) {
+    private static int getSettings(ObfuscateEngine engine, ProcessMethod method) {
+        return method == ProcessMethod.HIDE ? engine.getSettingsFingerprint() : PrefMgr.getLastObfuscateHideSettings();
+    }
 
-            if (processTextFileEnhanced) {
-                return FileHiderUtil.checkIsTextFileEnhanced(path)
-                        && FileHiderUtil.getFileSizeKB(path) <= MAX_PROCESS_WHOLE_FILE_SIZE_KB;
-            } else { // Not enhanced
-                return FileHiderUtil.checkIsTextFile(filename)
-                        && FileHiderUtil.getFileSizeKB(path) <= MAX_PROCESS_ENHANCED_WHOLE_FILE_SIZE_KB;
-            }
+    private static Set<Path> toPaths(Set<String> targetDirs) {
+        return targetDirs.stream().map(Paths::get).collect(Collectors.toSet());
+    }
 
-        } else { // UNHIDE
-            return filename.endsWith(FILENAME_FULL_PROCESS_MARK);
-        }
+    @Override
+    public void tryToActive(ActivationCallbackListener activationCallbackListener) {
+        activationCallbackListener.onActivateCallback(this.getClass(), true, 0);
     }
 
-    private boolean checkShouldProcessHeader(Path path, ProcessMethod method) {
-        String filename = path.getFileName().toString();
-        if (method == HIDE) return processHeader;
-        else return filename.endsWith(FILENAME_HEADER_PROCESS_MARK);
+    @Override
+    public String getName() {
+        return "Obfuscate";
     }
 }
@@ -0,0 +1,248 @@
+package deltazero.amarok.filehider;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Set;
+
+import deltazero.amarok.R;
+import deltazero.amarok.utils.HashUtil;
+import deltazero.amarok.utils.MediaStoreHelper;
+
+/**
+ * Hide folders by moving them into the app-specific directory of their volume
+ * ({@code Android/data/<package>/files/vault}) with a single rename.
+ * <p>
+ * No data is copied, so hiding and unhiding take the same time for any folder size.
+ * Next to each moved folder, its original path is recorded, so that unhide restores
+ * everything in the vault even if the target list has changed in between.
+ * <p>
+ * The app-specific directory is removed by the system when the app is uninstalled,
+ * together with everything still hidden in it.
+ */
+public class VaultFileHider extends BaseFileHider {
+
+    private static final String TAG = "VaultFileHider";
+
+    private static final String VAULT_DIRNAME = "vault";
+    private static final String ORIGINAL_PATH_SUFFIX = ".path";
+    private static final String PROBE_DIRNAME = ".amarok_vault_probe";
+
+    private record VaultEntry(Path path, Path originalPath) {
+    }
+
+    public VaultFileHider(Context context) {
+        super(context);
+    }
+
+    @Override
+    protected void process(Set<String> targetDirs, ProcessMethod method) throws InterruptedException {
+        var changes = new ChangeSet();
+        if (method == ProcessMethod.HIDE) {
+            // Move nested targets before their parents
+            var sortedDirs = new ArrayList<Path>();
+            for (var dir : targetDirs)
+                sortedDirs.add(canonicalize(Paths.get(dir)));
+            sortedDirs.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+            for (var dir : sortedDirs) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                moveToVault(dir, changes);
+            }
+        } else {
+            for (var vault : getVaults()) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                restoreVault(vault, changes);
+            }
+        }
+
+        MediaStoreHelper.reconcile(context, changes, targetDirs);
+    }
+
+    @Override
+    public void tryToActive(ActivationCallbackListener activationCallbackListener) {
+        // Off the main thread, as the probe touches the storage
+        new Thread(() -> {
+            boolean success = probeVault();
+            new Handler(Looper.getMainLooper()).post(() -> activationCallbackListener.onActivateCallback(
+                    this.getClass(), success, success ? 0 : R.string.vault_not_ava));
+        }).start();
+    }
+
+    /**
+     * Android/data may be a separate mount, which makes renaming into it fail. Try it once.
+     */
+    private boolean probeVault() {
+        var vault = getVaults().stream().findFirst().orElse(null);
+        if (vault == null)
+            return false;
+
+        var probe = getVolumeRoot(vault).resolve(PROBE_DIRNAME);
+        var probeInVault = vault.resolve(PROBE_DIRNAME);
+        boolean success = false;
+        try {
+            Files.createDirectories(vault);
+            Files.createDirectories(probe);
+            success = probe.toFile().renameTo(probeInVault.toFile());
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "Failed to probe vault: ", e);
+        } finally {
+            // noinspection ResultOfMethodCallIgnored
+            probe.toFile().delete();
+            // noinspection ResultOfMethodCallIgnored
+            probeInVault.toFile().delete();
+        }
+        return success;
+    }
+
+    @Override
+    public String getName() {
+        return "Vault";
+    }
+
+    private void moveToVault(Path dir, ChangeSet changes) {
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            Log.w(TAG, String.format("Not a directory: %s", dir));
+            return;
+        }
+
+        var vault = getVaultOf(dir);
+        if (vault == null) {
+            Log.w(TAG, String.format("No vault on the volume of %s, skip...", dir));
+            return;
+        }
+
+        var name = HashUtil.calculateHash(dir.toString());
+        var entry = vault.resolve(name);
+        var originalPathFile = vault.resolve(name + ORIGINAL_PATH_SUFFIX);
+        if (Files.exists(entry, LinkOption.NOFOLLOW_LINKS)) {
+            Log.w(TAG, String.format("Already in vault: %s", dir));
+            return;
+        }
+
+        try {
+            Files.createDirectories(vault);
+            // Record the original path first, so that a moved folder can always be restored.
+            Files.write(originalPathFile, dir.toString().getBytes(UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, String.format("Failed to record original path of %s: ", dir), e);
+            return;
+        }
+
+        if (dir.toFile().renameTo(entry.toFile())) {
+            Log.i(TAG, String.format("Moved to vault: %s -> %s", dir, entry));
+            changes.addRemoved(dir, ChangeSet.Kind.TREE);
+        } else {
+            Log.w(TAG, String.format("Failed to move %s to vault", dir));
+            // noinspection ResultOfMethodCallIgnored
+            originalPathFile.toFile().delete();
+        }
+    }
+
+    private void restoreVault(Path vault, ChangeSet changes) {
+        var originalPathFiles = vault.toFile().listFiles((d, name) -> name.endsWith(ORIGINAL_PATH_SUFFIX));
+        if (originalPathFiles == null)
+            return;
+
+        // Restore parents before the targets nested in them
+        var entries = new ArrayList<VaultEntry>();
+        for (var file : originalPathFiles) {
+            try {
+                var originalPath = Paths.get(new String(Files.readAllBytes(file.toPath()), UTF_8));
+                var entry = vault.resolve(file.getName().substring(0, file.getName().length() - ORIGINAL_PATH_SUFFIX.length()));
+                entries.add(new VaultEntry(entry, originalPath));
+            } catch (IOException e) {
+                Log.w(TAG, String.format("Failed to read %s: ", file), e);
+            }
+        }
+        entries.sort(Comparator.comparingInt(e -> canonicalize(e.originalPath).getNameCount()));
+
+        for (var e : entries) {
+            var entry = e.path;
+            var originalPath = e.originalPath;
+
+            if (!Files.exists(entry, LinkOption.NOFOLLOW_LINKS)) {
+                Log.w(TAG, String.format("Missing in vault: %s", originalPath));
+                // noinspection ResultOfMethodCallIgnored
+                vault.resolve(entry.getFileName() + ORIGINAL_PATH_SUFFIX).toFile().delete();
+                continue;
+            }
+            if (Files.exists(originalPath, LinkOption.NOFOLLOW_LINKS)) {
+                // Never merge into or overwrite a folder created in the meantime
+                Log.w(TAG, String.format("%s already exists, keep it in vault: %s", originalPath, entry));
+                continue;
+            }
+
+            try {
+                Files.createDirectories(originalPath.getParent());
+            } catch (IOException ex) {
+                Log.w(TAG, String.format("Failed to create parent of %s: ", originalPath), ex);
+                continue;
+            }
+
+            if (entry.toFile().renameTo(originalPath.toFile())) {
+                Log.i(TAG, String.format("Restored from vault: %s -> %s", entry, originalPath));
+                changes.addAdded(originalPath, ChangeSet.Kind.TREE);
+                // noinspection ResultOfMethodCallIgnored
+                vault.resolve(entry.getFileName() + ORIGINAL_PATH_SUFFIX).toFile().delete();
+            } else {
+                Log.w(TAG, String.format("Failed to restore %s from vault", originalPath));
+            }
+        }
+    }
+
+    /**
+     * @return The vault directory on each mounted volume.
+     */
+    private ArrayList<Path> getVaults() {
+        var vaults = new ArrayList<Path>();
+        for (File dir : context.getExternalFilesDirs(null)) {
+            if (dir != null)
+                vaults.add(dir.toPath().resolve(VAULT_DIRNAME));
+        }
+        return vaults;
+    }
+
+    /**
+     * @return The vault on the same volume as the path, or null if there is none.
+     */
+    @Nullable
+    private Path getVaultOf(Path path) {
+        var canonical = canonicalize(path);
+        for (var vault : getVaults()) {
+            if (canonical.startsWith(canonicalize(getVolumeRoot(vault))))
+                return vault;
+        }
+        return null;
+    }
+
+    /**
+     * @return The path with the aliases of the primary storage resolved, so that a folder has one vault entry.
+     */
+    private static Path canonicalize(Path path) {
+        return Paths.get(TargetIndex.canonicalize(path.toString()));
+    }
+
+    /**
+     * The app-specific directory is always {@code <volume>/Android/data/<package>/files}.
+     */
+    private static Path getVolumeRoot(Path vault) {
+        // vault -> files -> <package> -> data -> Android -> <volume>
+        return vault.getParent().getParent().getParent().getParent().getParent();
+    }
+}
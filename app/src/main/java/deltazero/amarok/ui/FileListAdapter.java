@@ -3,6 +3,9 @@ package deltazero.amarok.ui;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.InputType;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -20,15 +23,27 @@ import com.google.android.material.textview.MaterialTextView;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import deltazero.amarok.filehider.BaseFileHider;
 import deltazero.amarok.filehider.ChmodFileHider;
+import deltazero.amarok.filehider.HidePlan;
 import deltazero.amarok.filehider.NoMediaFileHider;
 import deltazero.amarok.filehider.ObfuscateFileHider;
+import deltazero.amarok.filehider.ProcessMethod;
+import deltazero.amarok.filehider.TargetIndex;
+import deltazero.amarok.filehider.TargetRules;
 import deltazero.amarok.PrefMgr;
 import deltazero.amarok.R;
+import deltazero.amarok.utils.ProgressUtil;
 
 public class FileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
@@ -39,10 +54,24 @@ public class FileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
     private final int TYPE_FILE_ITEM = 0;
     private final int TYPE_FOOTAGE = 1;
 
+    // Dry-run plans of each path, null if the file hider does not plan. Only touched on the main thread.
+    private final Map<String, HidePlan> plans = new HashMap<>();
+    private final ExecutorService planExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final BaseFileHider fileHider;
+
     public FileListAdapter(Context context) {
         inflater = LayoutInflater.from(context);
         lsPath = new LinkedList<>(PrefMgr.getHideFilePath());
         this.context = context;
+        fileHider = PrefMgr.getFileHider(context);
+    }
+
+    /**
+     * Stop sizing the paths. Should be invoked when the activity is destroyed.
+     */
+    public void shutdown() {
+        planExecutor.shutdownNow();
     }
 
     @NonNull
@@ -61,7 +90,44 @@ public class FileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
                     currPath.substring(currPath.lastIndexOf(File.separator) + 1)
             );
             ((FileListHolder) holder).tvPath.setText(currPath);
+            bindPlan(((FileListHolder) holder).tvPlan, currPath);
+        }
+    }
+
+    private void bindPlan(MaterialTextView tvPlan, String path) {
+        if (!plans.containsKey(path)) {
+            plans.put(path, null);
+            tvPlan.setText(R.string.plan_sizing);
+            tvPlan.setVisibility(View.VISIBLE);
+            requestPlan(path);
+            return;
         }
+
+        var plan = plans.get(path);
+        if (plan != null) {
+            tvPlan.setText(ProgressUtil.format(context, plan));
+            tvPlan.setVisibility(View.VISIBLE);
+        } else {
+            tvPlan.setVisibility(View.GONE);
+        }
+    }
+
+    private void requestPlan(String path) {
+        planExecutor.execute(() -> {
+            HidePlan plan;
+            try {
+                plan = fileHider.plan(Set.of(path), ProcessMethod.HIDE);
+            } catch (InterruptedException e) {
+                return;
+            }
+            mainHandler.post(() -> {
+                int position = lsPath.indexOf(path);
+                if (position < 0)
+                    return;
+                plans.put(path, plan);
+                notifyItemChanged(position);
+            });
+        });
     }
 
     @Override
@@ -78,7 +144,7 @@ public class FileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
 
     public class FileListHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
-        public MaterialTextView tvFolderName, tvPath;
+        public MaterialTextView tvFolderName, tvPath, tvPlan;
         public LinearLayout llPathItem;
         private final FileListAdapter adapter;
 
@@ -88,6 +154,7 @@ public class FileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
 
             tvFolderName = itemView.findViewById(R.id.hidefile_tv_foldername);
             tvPath = itemView.findViewById(R.id.hidefile_tv_path);
+            tvPlan = itemView.findViewById(R.id.hidefile_tv_plan);
             llPathItem = itemView.findViewById(R.id.hideapp_ll_pathitem);
 
             llPathItem.setOnClickListener(this);
@@ -104,14 +171,60 @@ public class FileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
                             Set<String> hideFilePath = PrefMgr.getHideFilePath();
                             hideFilePath.remove(lsPath.get(getLayoutPosition()));
                             PrefMgr.setHideFilePath(hideFilePath);
+                            PrefMgr.setHideFileRules(lsPath.get(getLayoutPosition()), List.of());
 
                             lsPath.remove(getLayoutPosition());
                             adapter.notifyItemRemoved(getAdapterPosition());
                         }
                     })
+                    .setNeutralButton(R.string.hide_rules, (dialog, which) -> showRulesDialog(tvPath.getText().toString()))
                     .setNegativeButton(R.string.cancel, null)
                     .show();
         }
+
+        private void showRulesDialog(String path) {
+            MaterialAlertDialogBuilder alertBuilder = new MaterialAlertDialogBuilder(context)
+                    .setTitle(R.string.hide_rules)
+                    .setMessage(R.string.hide_rules_description)
+                    .setNegativeButton(R.string.cancel, null);
+
+            View dlRulesInput = LayoutInflater.from(alertBuilder.getContext()).inflate(R.layout.dialog_path_input, null);
+            EditText etRulesInput = dlRulesInput.findViewById(R.id.dialog_path_input_et_input);
+            etRulesInput.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE
+                    | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+            etRulesInput.setMinLines(3);
+            etRulesInput.setHint("exclude .thumbnails\nexclude size > 2G");
+            etRulesInput.setText(String.join("\n", PrefMgr.getHideFileRules(path)));
+
+            alertBuilder.setView(dlRulesInput)
+                    .setPositiveButton(R.string.confirm, (dialog, which) -> {
+                        var rules = new ArrayList<String>();
+                        for (var line : Objects.requireNonNull(etRulesInput.getText()).toString().split("\n")) {
+                            line = line.trim();
+                            if (!line.isEmpty())
+                                rules.add(line);
+                        }
+
+                        try {
+                            TargetRules.compile(rules);
+                        } catch (IllegalArgumentException e) {
+                            Log.w("FilePicker", "Invalid rules: ", e);
+                            Toast.makeText(context, context.getString(R.string.invalid_hide_rules, e.getMessage()),
+                                    Toast.LENGTH_LONG).show();
+                            return;
+                        }
+
+                        PrefMgr.setHideFileRules(path, rules);
+                        var others = PrefMgr.getHideFilePath();
+                        others.remove(path);
+                        if (!rules.isEmpty() && new TargetIndex(others).findOverlap(path) != null)
+                            Toast.makeText(context, R.string.hide_rules_nested, Toast.LENGTH_LONG).show();
+                        // Size the path again under the new rules
+                        plans.remove(path);
+                        notifyItemChanged(lsPath.indexOf(path));
+                    })
+                    .show();
+        }
     }
 
     public class FootageHolder extends RecyclerView.ViewHolder {
@@ -164,6 +277,9 @@ public class FileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
                                     return;
                                 }
 
+                                if (SetHideFilesActivity.showIfOverlapping(itemView.getContext(), input))
+                                    return;
+
                                 Set<String> hideFilePaths = PrefMgr.getHideFilePath();
                                 hideFilePaths.add(input);
                                 PrefMgr.setHideFilePath(hideFilePaths);
@@ -19,10 +19,12 @@ import deltazero.amarok.PrefMgr;
 import deltazero.amarok.R;
 import deltazero.amarok.apphider.NoneAppHider;
 import deltazero.amarok.filehider.NoneFileHider;
+import deltazero.amarok.filehider.ProgressTracker;
 import deltazero.amarok.ui.settings.SettingsActivity;
 import deltazero.amarok.ui.settings.SwitchAppHiderActivity;
 import deltazero.amarok.ui.settings.SwitchFileHiderActivity;
 import deltazero.amarok.utils.PermissionUtil;
+import deltazero.amarok.utils.ProgressUtil;
 import deltazero.amarok.utils.UpdateUtil;
 import nl.dionsegijn.konfetti.xml.KonfettiView;
 
@@ -57,6 +59,7 @@ public class MainActivity extends AmarokActivity {
 
         // Setup observer
         Hider.state.observe(this, this::refreshUi);
+        Hider.progress.observe(this, this::refreshProgress);
 
         // Show welcome dialog
         if (PrefMgr.getShowWelcome()) {
@@ -184,10 +187,24 @@ public class MainActivity extends AmarokActivity {
                 // Processing
                 piProcessStatus.show();
                 btChangeStatus.setEnabled(false);
+                refreshProgress(Hider.progress.getValue());
             }
         }
     }
 
+    public void refreshProgress(ProgressTracker.Progress progress) {
+        if (Hider.getState() != Hider.State.PROCESSING)
+            return;
+
+        if (progress == null) {
+            piProcessStatus.setIndeterminate(true);
+            return;
+        }
+        piProcessStatus.setIndeterminate(false);
+        piProcessStatus.setProgressCompat(ProgressUtil.getPercent(progress), true);
+        tvStatusInfo.setText(ProgressUtil.format(this, progress));
+    }
+
     @Override
     protected void onResume() {
         refreshUi(Hider.getState());
@@ -1,5 +1,6 @@
 package deltazero.amarok.ui;
 
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
@@ -17,7 +18,6 @@ import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import java.io.File;
-import java.nio.file.Paths;
 import java.util.Set;
 
 import deltazero.amarok.AmarokActivity;
@@ -70,30 +70,10 @@ public class SetHideFilesActivity extends AmarokActivity {
                             return;
                         }
 
-                        Set<String> hideFilePath = PrefMgr.getHideFilePath();
-
-                        // Check if the path is duplicated
-                        var p2 = Paths.get(newPath).toAbsolutePath();
-                        for (String p : hideFilePath) {
-                            var p1 = Paths.get(p).toAbsolutePath();
-                            String msg = null;
-
-                            if (p1.startsWith(p2)) {
-                                msg = getString(R.string.path_duplicated_description, newPath, p);
-                            } else if (p2.startsWith(p1)) {
-                                msg = getString(R.string.path_duplicated_description, p, newPath);
-                            }
-
-                            if (msg != null) {
-                                new MaterialAlertDialogBuilder(this)
-                                        .setTitle(R.string.path_duplicated)
-                                        .setMessage(msg)
-                                        .setPositiveButton(R.string.ok, null)
-                                        .show();
-                                return;
-                            }
-                        }
+                        if (showIfOverlapping(this, newPath))
+                            return;
 
+                        Set<String> hideFilePath = PrefMgr.getHideFilePath();
                         hideFilePath.add(newPath);
                         PrefMgr.setHideFilePath(hideFilePath);
 
@@ -119,6 +99,12 @@ public class SetHideFilesActivity extends AmarokActivity {
 
     }
 
+    @Override
+    protected void onDestroy() {
+        adapter.shutdown();
+        super.onDestroy();
+    }
+
     @Nullable
     private String getPathFromUri(Uri uri) {
         String[] splitUri = uri.getPath().split(":");
@@ -143,6 +129,34 @@ public class SetHideFilesActivity extends AmarokActivity {
         return null;
     }
 
+    /**
+     * Show a dialog if the path contains, is inside or is an alias of a hide target.
+     *
+     * @return True if it is, and must not be added.
+     */
+    static boolean showIfOverlapping(Context context, String newPath) {
+        var targets = PrefMgr.getHideFileTargets();
+        String msg = null;
+
+        var containing = targets.findContaining(newPath);
+        if (containing != null) {
+            msg = context.getString(R.string.path_duplicated_description, containing, newPath);
+        } else {
+            var contained = targets.findContained(newPath);
+            if (contained != null)
+                msg = context.getString(R.string.path_duplicated_description, newPath, contained);
+        }
+
+        if (msg == null)
+            return false;
+        new MaterialAlertDialogBuilder(context)
+                .setTitle(R.string.path_duplicated)
+                .setMessage(msg)
+                .setPositiveButton(R.string.ok, null)
+                .show();
+        return true;
+    }
+
     public void addHideFolder(View view) {
         try {
             mDirRequest.launch(null);
@@ -1,17 +1,33 @@
 package deltazero.amarok.ui.settings;
 
 import android.os.Bundle;
+import android.widget.RelativeLayout;
+import android.widget.TextView;
+
+import androidx.annotation.Nullable;
 
 import com.google.android.material.appbar.MaterialToolbar;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.materialswitch.MaterialSwitch;
 
+import java.util.Objects;
+
 import deltazero.amarok.AmarokActivity;
 import deltazero.amarok.PrefMgr;
 import deltazero.amarok.R;
+import deltazero.amarok.filehider.ObfuscateEngine;
+import deltazero.amarok.filehider.StridedLayout;
 
 public class ObfuscateFileHiderSettingsActivity extends AmarokActivity {
 
+    private static final int[] HIDE_DEPTH_OPTIONS = {
+            ObfuscateEngine.HIDE_DEPTH_UNLIMITED, ObfuscateEngine.HIDE_DEPTH_TARGET_ONLY, 1, 2, 3};
+    private static final StridedLayout[] STRIDED_OPTIONS = {
+            null, new StridedLayout(4, 1024), new StridedLayout(16, 1024), new StridedLayout(64, 1024)};
+
     private MaterialSwitch swObfuscateFileHeader, swObfuscateTextFile, swObfuscateTextFileEnhanced;
+    private RelativeLayout rlObfuscateStrided, rlObfuscateDepth;
+    private TextView tvObfuscateStrided, tvObfuscateDepth;
     private MaterialToolbar tbToolBar;
 
     @Override
@@ -22,6 +38,10 @@ public class ObfuscateFileHiderSettingsActivity extends AmarokActivity {
         swObfuscateFileHeader = findViewById(R.id.switch_filehider_sw_obfuscate_header);
         swObfuscateTextFile = findViewById(R.id.switch_filehider_sw_obfuscate_text);
         swObfuscateTextFileEnhanced = findViewById(R.id.switch_filehider_sw_obfuscate_text_enhanced);
+        rlObfuscateStrided = findViewById(R.id.switch_filehider_rl_obfuscate_strided);
+        tvObfuscateStrided = findViewById(R.id.switch_filehider_tv_obfuscate_strided);
+        rlObfuscateDepth = findViewById(R.id.switch_filehider_rl_obfuscate_depth);
+        tvObfuscateDepth = findViewById(R.id.switch_filehider_tv_obfuscate_depth);
         tbToolBar = findViewById(R.id.switch_filehider_tb_toolbar);
 
         // Init UI
@@ -30,6 +50,7 @@ public class ObfuscateFileHiderSettingsActivity extends AmarokActivity {
             if (!isChecked) {
                 PrefMgr.setEnableObfuscateTextFile(false);
                 PrefMgr.setEnableObfuscateTextFileEnhanced(false);
+                PrefMgr.setObfuscateStridedLayout(null);
             }
             updateUI();
         });
@@ -45,6 +66,9 @@ public class ObfuscateFileHiderSettingsActivity extends AmarokActivity {
             updateUI();
         });
 
+        rlObfuscateStrided.setOnClickListener(v -> showStridedDialog());
+        rlObfuscateDepth.setOnClickListener(v -> showHideDepthDialog());
+
         // Enable back button
         tbToolBar.setNavigationOnClickListener(v -> finish());
 
@@ -65,5 +89,63 @@ public class ObfuscateFileHiderSettingsActivity extends AmarokActivity {
 
         swObfuscateTextFile.setEnabled(PrefMgr.getEnableObfuscateFileHeader());
         swObfuscateTextFileEnhanced.setEnabled(PrefMgr.getEnableObfuscateFileHeader() && PrefMgr.getEnableObfuscateTextFile());
+
+        rlObfuscateStrided.setEnabled(PrefMgr.getEnableObfuscateFileHeader());
+        tvObfuscateStrided.setText(getStridedDescription(PrefMgr.getObfuscateStridedLayout()));
+        tvObfuscateDepth.setText(getHideDepthDescription(PrefMgr.getObfuscateHideDepth()));
+    }
+
+    private void showStridedDialog() {
+        var items = new String[STRIDED_OPTIONS.length];
+        int checkedItem = 0;
+        for (int i = 0; i < STRIDED_OPTIONS.length; i++) {
+            items[i] = getStridedDescription(STRIDED_OPTIONS[i]);
+            if (Objects.equals(STRIDED_OPTIONS[i], PrefMgr.getObfuscateStridedLayout()))
+                checkedItem = i;
+        }
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.obfuscate_strided)
+                .setSingleChoiceItems(items, checkedItem, (dialog, which) -> {
+                    PrefMgr.setObfuscateStridedLayout(STRIDED_OPTIONS[which]);
+                    updateUI();
+                    dialog.dismiss();
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private String getStridedDescription(@Nullable StridedLayout layout) {
+        if (layout == null)
+            return getString(R.string.obfuscate_strided_off);
+        return getString(R.string.obfuscate_strided_blocks, layout.blockKB(), layout.strideKB());
+    }
+
+    private void showHideDepthDialog() {
+        var items = new String[HIDE_DEPTH_OPTIONS.length];
+        int checkedItem = 0;
+        for (int i = 0; i < HIDE_DEPTH_OPTIONS.length; i++) {
+            items[i] = getHideDepthDescription(HIDE_DEPTH_OPTIONS[i]);
+            if (HIDE_DEPTH_OPTIONS[i] == PrefMgr.getObfuscateHideDepth())
+                checkedItem = i;
+        }
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.obfuscate_depth)
+                .setSingleChoiceItems(items, checkedItem, (dialog, which) -> {
+                    PrefMgr.setObfuscateHideDepth(HIDE_DEPTH_OPTIONS[which]);
+                    updateUI();
+                    dialog.dismiss();
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private String getHideDepthDescription(int depth) {
+        return switch (depth) {
+            case ObfuscateEngine.HIDE_DEPTH_UNLIMITED -> getString(R.string.obfuscate_depth_unlimited);
+            case ObfuscateEngine.HIDE_DEPTH_TARGET_ONLY -> getString(R.string.obfuscate_depth_target_only);
+            default -> getResources().getQuantityString(R.plurals.obfuscate_depth_levels, depth, depth);
+        };
     }
 }
\ No newline at end of file
@@ -20,11 +20,12 @@ import deltazero.amarok.filehider.ChmodFileHider;
 import deltazero.amarok.filehider.NoMediaFileHider;
 import deltazero.amarok.filehider.NoneFileHider;
 import deltazero.amarok.filehider.ObfuscateFileHider;
+import deltazero.amarok.filehider.VaultFileHider;
 
 public class SwitchFileHiderActivity extends AmarokActivity {
 
     MaterialToolbar tbToolBar;
-    RadioButton rbDisabled, rbObfuscate, rbChmod, rbNoMedia;
+    RadioButton rbDisabled, rbObfuscate, rbChmod, rbNoMedia, rbVault;
     ImageView ivObfuscateSettings;
 
     @Override
@@ -36,6 +37,7 @@ public class SwitchFileHiderActivity extends AmarokActivity {
         rbObfuscate = findViewById(R.id.switch_filehider_radio_obfuscate);
         rbChmod = findViewById(R.id.switch_filehider_radio_chmod);
         rbNoMedia = findViewById(R.id.switch_filehider_radio_nomedia);
+        rbVault = findViewById(R.id.switch_filehider_radio_vault);
         tbToolBar = findViewById(R.id.switch_filehider_tb_toolbar);
         ivObfuscateSettings = findViewById(R.id.switch_filehider_iv_obfuscate_settings);
 
@@ -71,6 +73,14 @@ public class SwitchFileHiderActivity extends AmarokActivity {
                 // new ChmodFileHider(this).tryToActive(this::onActivationCallback);
             } else if (buttonID == R.id.switch_filehider_radio_nomedia) {
                 new NoMediaFileHider(this).tryToActive(this::onActivationCallback);
+            } else if (buttonID == R.id.switch_filehider_radio_vault) {
+                // Everything still hidden in the vault is removed together with the app
+                new MaterialAlertDialogBuilder(this)
+                        .setTitle(R.string.warning)
+                        .setMessage(R.string.vault_uninstall_warning)
+                        .setPositiveButton(R.string.ok, (dialog, which) -> new VaultFileHider(this).tryToActive(this::onActivationCallback))
+                        .setNegativeButton(R.string.cancel, (dialog, which) -> new NoneFileHider(this).tryToActive(this::onActivationCallback))
+                        .show();
             }
         }
     }
@@ -110,6 +120,7 @@ public class SwitchFileHiderActivity extends AmarokActivity {
         rbObfuscate.setChecked(false);
         rbNoMedia.setChecked(false);
         rbChmod.setChecked(false);
+        rbVault.setChecked(false);
 
         if (fileHider.isAssignableFrom(NoneFileHider.class)) {
             rbDisabled.setChecked(true);
@@ -119,6 +130,8 @@ public class SwitchFileHiderActivity extends AmarokActivity {
             rbChmod.setChecked(true);
         } else if (fileHider.isAssignableFrom(NoMediaFileHider.class)) {
             rbNoMedia.setChecked(true);
+        } else if (fileHider.isAssignableFrom(VaultFileHider.class)) {
+            rbVault.setChecked(true);
         }
     }
 }
\ No newline at end of file
@@ -1,22 +1,183 @@
 package deltazero.amarok.utils;
 
+import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.media.MediaScannerConnection;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import deltazero.amarok.filehider.ChangeSet;
 
 public class MediaStoreHelper {
     private static final String TAG = "MediaStoreHelper";
 
-    public static void scan(Context context, Set<String> dirs) {
+    /**
+     * Paths per delete, below the limit of SQLite on bound arguments.
+     */
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    public static void scan(Context context, Collection<String> paths) {
+        if (paths.isEmpty())
+            return;
+        var remaining = new AtomicInteger(paths.size());
         try {
-            MediaScannerConnection.scanFile(context, dirs.toArray(new String[0]), null,
-                    (ignore, ignore2) -> Log.d(TAG, "MediaStore cache refreshed"));
+            MediaScannerConnection.scanFile(context, paths.toArray(new String[0]), null, (ignore, ignore2) -> {
+                if (remaining.decrementAndGet() == 0)
+                    Log.d(TAG, "MediaStore cache refreshed");
+            });
         } catch (Exception e) {
             // MediaScannerConnection.scanFile may throw ArrayIndexOutOfBoundsException on OxygenOS 11
             // See https://github.com/deltazefiro/Amarok-Hider/issues/171#issuecomment-2225104851
             Log.w(TAG, "Error while rescanning media store", e);
         }
     }
+
+    /**
+     * Bring the media store up to date with the paths changed by a run: delete the rows of the paths moved away
+     * in a few batched operations, and scan the visible paths moved in, rather than rescanning whole trees.
+     *
+     * @param fallbackDirs Directories to rescan instead if the rows cannot be deleted.
+     */
+    public static void reconcile(Context context, ChangeSet changes, Set<String> fallbackDirs) {
+        if (changes.isEmpty())
+            return;
+
+        if (!deleteRowsOfMissing(context, changes.getRemovedPaths(), changes.getRemovedTrees())) {
+            scan(context, fallbackDirs);
+            return;
+        }
+
+        var rescanDirs = changes.getRescanDirs();
+        var paths = new LinkedHashSet<>(rescanDirs);
+        for (var path : changes.getAddedPaths()) {
+            // The scanner skips hidden entries anyway
+            if (!isHidden(path) && !isInAny(path, rescanDirs))
+                paths.add(path);
+        }
+        Log.d(TAG, String.format("Reconcile media store: %d paths removed, %d scanned",
+                changes.getRemovedPaths().size(), paths.size()));
+        scan(context, paths);
+    }
+
+    /**
+     * Query the media files below the directories, all at once.
+     *
+     * @return Paths of the rows, or null if the media store cannot be queried.
+     */
+    @Nullable
+    @SuppressWarnings("deprecation") // DATA is still the only way to match rows by path
+    public static List<String> queryMediaUnder(Context context, Collection<String> dirs) {
+        if (dirs.isEmpty())
+            return List.of();
+
+        var selection = new StringBuilder(MediaStore.Files.FileColumns.MEDIA_TYPE + " != "
+                + MediaStore.Files.FileColumns.MEDIA_TYPE_NONE + " AND (");
+        var args = new String[dirs.size()];
+        int i = 0;
+        for (var dir : dirs) {
+            if (i > 0)
+                selection.append(" OR ");
+            selection.append(MediaStore.MediaColumns.DATA).append(" LIKE ? ESCAPE '\\'");
+            args[i++] = escapeLike(dir) + "/%";
+        }
+        selection.append(")");
+
+        var paths = new ArrayList<String>();
+        try (Cursor cursor = context.getContentResolver().query(MediaStore.Files.getContentUri("external"),
+                new String[]{MediaStore.MediaColumns.DATA}, selection.toString(), args, null)) {
+            if (cursor == null)
+                return null;
+            while (cursor.moveToNext()) {
+                var path = cursor.getString(0);
+                if (path != null)
+                    paths.add(path);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Error while querying media store", e);
+            return null;
+        }
+        return paths;
+    }
+
+    /**
+     * Delete the rows of the paths, and of the trees below the given directories, in one batch.
+     * Paths that still exist are left alone, as deleting a row may delete its file as well.
+     *
+     * @return False if the media store refused the deletes.
+     */
+    @SuppressWarnings("deprecation")
+    public static boolean deleteRowsOfMissing(Context context, Collection<String> paths, Collection<String> trees) {
+        Uri uri = MediaStore.Files.getContentUri("external");
+        var ops = new ArrayList<ContentProviderOperation>();
+
+        var batch = new ArrayList<String>(DELETE_BATCH_SIZE);
+        for (var path : paths) {
+            if (new File(path).exists())
+                continue;
+            batch.add(path);
+            if (batch.size() == DELETE_BATCH_SIZE) {
+                ops.add(newDeleteIn(uri, batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+            ops.add(newDeleteIn(uri, batch));
+
+        for (var tree : trees) {
+            if (new File(tree).exists())
+                continue;
+            ops.add(ContentProviderOperation.newDelete(uri)
+                    .withSelection(MediaStore.MediaColumns.DATA + " LIKE ? ESCAPE '\\'",
+                            new String[]{escapeLike(tree) + "/%"})
+                    .build());
+        }
+
+        if (ops.isEmpty())
+            return true;
+        try {
+            context.getContentResolver().applyBatch(MediaStore.AUTHORITY, ops);
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Error while deleting stale media store rows", e);
+            return false;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static ContentProviderOperation newDeleteIn(Uri uri, List<String> paths) {
+        var selection = MediaStore.MediaColumns.DATA + " IN ("
+                + String.join(",", Collections.nCopies(paths.size(), "?")) + ")";
+        return ContentProviderOperation.newDelete(uri)
+                .withSelection(selection, paths.toArray(new String[0]))
+                .build();
+    }
+
+    private static String escapeLike(String path) {
+        return path.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static boolean isInAny(String path, Set<String> dirs) {
+        for (var dir : dirs) {
+            if (path.startsWith(dir + "/"))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isHidden(String path) {
+        return path.contains("/.");
+    }
 }
@@ -0,0 +1,47 @@
+package deltazero.amarok.utils;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
+
+import java.text.NumberFormat;
+
+import deltazero.amarok.R;
+import deltazero.amarok.filehider.HidePlan;
+import deltazero.amarok.filehider.ProgressTracker;
+
+public class ProgressUtil {
+
+    public static int getPercent(ProgressTracker.Progress progress) {
+        return (int) (progress.fraction() * 100);
+    }
+
+    /**
+     * Format the progress into a single line, e.g. "1,024 / 4,096 items · 12 MB/s · about 0:42 left".
+     * Throughput and ETA are left out until they are known.
+     */
+    public static String format(Context context, ProgressTracker.Progress progress) {
+        var numberFormat = NumberFormat.getIntegerInstance();
+        var sb = new StringBuilder(context.getString(R.string.progress_entries,
+                numberFormat.format(progress.entriesDone()), numberFormat.format(progress.entriesTotal())));
+
+        if (progress.bytesPerSecond() > 0)
+            sb.append(" · ").append(context.getString(R.string.progress_throughput,
+                    Formatter.formatShortFileSize(context, (long) progress.bytesPerSecond())));
+        if (progress.etaMillis() > 0)
+            sb.append(" · ").append(context.getString(R.string.progress_eta,
+                    DateUtils.formatElapsedTime(Math.max(progress.etaMillis() / 1000, 1))));
+
+        return sb.toString();
+    }
+
+    /**
+     * Format the plan into a single line, e.g. "4,096 items · 1.2 GB · about 0:42 to hide".
+     */
+    public static String format(Context context, HidePlan plan) {
+        return context.getString(R.string.plan_summary,
+                NumberFormat.getIntegerInstance().format(plan.getNumEntries()),
+                Formatter.formatShortFileSize(context, plan.totalBytes),
+                DateUtils.formatElapsedTime(Math.max(plan.predictedMillis / 1000, 1)));
+    }
+}
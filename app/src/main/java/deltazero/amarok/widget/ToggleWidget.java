@@ -9,15 +9,21 @@ import android.content.Intent;
 import android.util.Log;
 import android.widget.RemoteViews;
 
+import androidx.lifecycle.Observer;
+
 import deltazero.amarok.Hider;
 import deltazero.amarok.R;
+import deltazero.amarok.filehider.ProgressTracker;
 import deltazero.amarok.ui.SecurityAuthForQSActivity;
+import deltazero.amarok.utils.ProgressUtil;
 import deltazero.amarok.utils.SecurityUtil;
 
 public class ToggleWidget extends AppWidgetProvider {
     private static final String TAG = "ToggleWidget";
     private static final String ACTION_TOGGLE = "deltazero.amarok.widget.ACTION_TOGGLE";
     public static boolean initialized = false;
+    private static int lastPercent = -1;
+    private static Observer<ProgressTracker.Progress> progressObserver;
 
     /**
      * Initialize widget state observer. Should be invoked in {@link deltazero.amarok.AmarokApplication#onCreate()},
@@ -31,9 +37,33 @@ public class ToggleWidget extends AppWidgetProvider {
             Log.i(TAG, "State changed, updating all widgets.");
             updateAllWidgets(context);
         });
+        progressObserver = progress -> {
+            // Only push the widget to the launcher when the displayed percent changes
+            int percent = progress == null ? -1 : ProgressUtil.getPercent(progress);
+            if (percent == lastPercent)
+                return;
+            lastPercent = percent;
+            updateAllWidgets(context);
+        };
+        // Observed only while a widget is placed, so that the progress is not sized for nobody
+        if (AppWidgetManager.getInstance(context)
+                .getAppWidgetIds(new ComponentName(context, ToggleWidget.class)).length > 0)
+            Hider.progress.observeForever(progressObserver);
         initialized = true;
     }
 
+    @Override
+    public void onEnabled(Context context) {
+        if (initialized)
+            Hider.progress.observeForever(progressObserver);
+    }
+
+    @Override
+    public void onDisabled(Context context) {
+        if (initialized)
+            Hider.progress.removeObserver(progressObserver);
+    }
+
     private static void updateAllWidgets(Context context) {
         AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(context, ToggleWidget.class));
@@ -82,12 +112,21 @@ public class ToggleWidget extends AppWidgetProvider {
         boolean isHidden = (state == Hider.State.HIDDEN);
         boolean isProcessing = (state == Hider.State.PROCESSING);
 
-        // Show/hide progress spinner
+        // Show/hide progress spinner, with the percent once reported
         if (isProcessing) {
+            var progress = Hider.progress.getValue();
             views.setViewVisibility(R.id.widget_toggle_progress, android.view.View.VISIBLE);
             views.setViewVisibility(R.id.widget_toggle_button, android.view.View.INVISIBLE);
+            if (progress != null) {
+                views.setTextViewText(R.id.widget_toggle_progress_text,
+                        context.getString(R.string.progress_percent, ProgressUtil.getPercent(progress)));
+                views.setViewVisibility(R.id.widget_toggle_progress_text, android.view.View.VISIBLE);
+            } else {
+                views.setViewVisibility(R.id.widget_toggle_progress_text, android.view.View.GONE);
+            }
         } else {
             views.setViewVisibility(R.id.widget_toggle_progress, android.view.View.GONE);
+            views.setViewVisibility(R.id.widget_toggle_progress_text, android.view.View.GONE);
             views.setViewVisibility(R.id.widget_toggle_button, android.view.View.VISIBLE);
 
             // Set the icon and background based on current state
@@ -0,0 +1,94 @@
+package deltazero.amarok.filehider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Invert file content with {@link ContentTransformer}, with and without a {@link BufferPool}, and buffers
+ * with {@link InversionKernel} against a byte-at-a-time loop. Run with {@code -prof gc} to compare allocations.
+ * <p>
+ * Inverting twice restores the content, so every invocation runs on the same file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ContentTransformBenchmark {
+
+    /**
+     * Below and above {@link ContentTransformer#MAP_THRESHOLD}.
+     */
+    @Param({"65536", "1048576", "16777216"})
+    public int size;
+
+    private Path file;
+    private FileChannel channel;
+    private ByteBuffer heapBuffer, directBuffer;
+    private final BufferPool pool = new BufferPool(ContentTransformer.STREAM_BUFFER_SIZE, 1);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        var content = new byte[size];
+        new Random(42).nextBytes(content);
+
+        file = Files.createTempFile("amarok-bench-transform", ".bin");
+        Files.write(file, content);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        heapBuffer = ByteBuffer.wrap(content.clone());
+        directBuffer = ByteBuffer.allocateDirect(size);
+        directBuffer.put(content);
+        directBuffer.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public void invertWhole() throws IOException {
+        ContentTransformer.invertWhole(channel, size);
+    }
+
+    @Benchmark
+    public void invertWholePooled() throws IOException {
+        ContentTransformer.invertWhole(channel, size, pool);
+    }
+
+    @Benchmark
+    public ByteBuffer kernelHeap() {
+        InversionKernel.invert(heapBuffer, 0, size);
+        return heapBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer kernelDirect() {
+        InversionKernel.invert(directBuffer, 0, size);
+        return directBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer byteLoopHeap() {
+        for (int i = 0; i < size; i++)
+            heapBuffer.put(i, (byte) ~heapBuffer.get(i));
+        return heapBuffer;
+    }
+}
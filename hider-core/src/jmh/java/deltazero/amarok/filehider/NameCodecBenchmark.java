@@ -0,0 +1,101 @@
+package deltazero.amarok.filehider;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import deltazero.amarok.utils.FileHiderUtil;
+
+/**
+ * Encode and decode typical filenames with {@link NameCodec}, against the previous
+ * {@code getBytes} + {@code Base64.encodeToString} + {@code Paths.get(parent.toString(), name)} code.
+ * <p>
+ * Every invocation processes {@value #NUM_NAMES} names, and the score is per name.
+ * Run with {@code -prof gc} to compare the bytes allocated per name.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class NameCodecBenchmark {
+
+    private static final int NUM_NAMES = 100_000;
+
+    private static final String[] TEMPLATES = {
+            "IMG_20240101_%06d.jpg",
+            "VID_20231224_181920_HDR_%d.mp4",
+            "Screenshot_2024-03-05-10-11-12-345_com.example.app_%d.png",
+            "notes %d.txt",
+            "旅行照片 - 京都 2023 (%d).jpeg",
+            "%d",
+    };
+
+    private static final Base64.Encoder LEGACY_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder LEGACY_DECODER = Base64.getUrlDecoder();
+
+    private final Path parent = Paths.get("/storage/emulated/0/DCIM/Camera");
+    private String[] names, encodedNames;
+
+    @Setup
+    public void setup() {
+        names = new String[NUM_NAMES];
+        encodedNames = new String[NUM_NAMES];
+        for (int i = 0; i < NUM_NAMES; i++) {
+            names[i] = String.format(TEMPLATES[i % TEMPLATES.length], i);
+            encodedNames[i] = NameCodec.encode(names[i], ObfuscateEngine.FILENAME_HEADER_PROCESS_MARK);
+
+            if (!encodedNames[i].equals(legacyEncode(names[i], ObfuscateEngine.FILENAME_HEADER_PROCESS_MARK))
+                    || !names[i].equals(legacyDecode(encodedNames[i])))
+                throw new IllegalStateException("Codec differs from the previous code on " + names[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_NAMES)
+    public void encode(Blackhole bh) {
+        for (var name : names)
+            bh.consume(parent.resolve(NameCodec.encode(name, ObfuscateEngine.FILENAME_HEADER_PROCESS_MARK)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_NAMES)
+    public void encodeLegacy(Blackhole bh) {
+        for (var name : names)
+            bh.consume(Paths.get(parent.toString(), legacyEncode(name, ObfuscateEngine.FILENAME_HEADER_PROCESS_MARK)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_NAMES)
+    public void decode(Blackhole bh) {
+        for (var name : encodedNames)
+            bh.consume(parent.resolve(NameCodec.decode(name, FileHiderUtil.matchMark(name))));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_NAMES)
+    public void decodeLegacy(Blackhole bh) {
+        for (var name : encodedNames)
+            bh.consume(Paths.get(parent.toString(), legacyDecode(name)));
+    }
+
+    private static String legacyEncode(String filename, String mark) {
+        return "." + LEGACY_ENCODER.encodeToString(filename.getBytes(UTF_8)) + mark;
+    }
+
+    private static String legacyDecode(String encodedFilename) {
+        var payload = encodedFilename.substring(1, encodedFilename.lastIndexOf(ObfuscateEngine.FILENAME_NO_PROCESS_MARK));
+        return new String(LEGACY_DECODER.decode(payload), UTF_8);
+    }
+}
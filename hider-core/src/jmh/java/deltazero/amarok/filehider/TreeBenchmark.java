@@ -0,0 +1,150 @@
+package deltazero.amarok.filehider;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Hide and unhide a generated file tree with {@link ObfuscateEngine}.
+ * <p>
+ * The tree holds {@code numDirs} folders of {@code filesPerDir} files each, split over two levels,
+ * with a mix of JPEG, text and unknown binary files. Every invocation starts from the opposite state,
+ * restored outside of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TreeBenchmark {
+
+    @State(Scope.Thread)
+    public abstract static class Tree {
+
+        @Param({"20"})
+        public int numDirs;
+
+        @Param({"50"})
+        public int filesPerDir;
+
+        @Param({"16384"})
+        public int fileSize;
+
+        @Param({"false", "true"})
+        public boolean processTextFileEnhanced;
+
+        Path root, stateDir;
+        ObfuscateEngine engine;
+        boolean hidden = false;
+
+        @Setup(Level.Trial)
+        public void createTree() throws IOException {
+            root = Files.createTempDirectory("amarok-bench-tree");
+            stateDir = Files.createTempDirectory("amarok-bench-state");
+
+            var random = new Random(42);
+            var content = new byte[fileSize];
+            for (int d = 0; d < numDirs; d++) {
+                var dir = root.resolve("dir" + (d / 4)).resolve("sub" + d);
+                Files.createDirectories(dir);
+                for (int f = 0; f < filesPerDir; f++) {
+                    random.nextBytes(content);
+                    String name;
+                    switch (f % 3) {
+                        case 0 -> {
+                            name = "IMG_" + f + ".jpg";
+                            content[0] = (byte) 0xFF;
+                            content[1] = (byte) 0xD8;
+                            content[2] = (byte) 0xFF;
+                        }
+                        case 1 -> {
+                            name = "note_" + f + ".txt";
+                            var text = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.\n".getBytes(UTF_8);
+                            for (int i = 0; i < content.length; i++)
+                                content[i] = text[i % text.length];
+                        }
+                        default -> name = "data_" + f + ".bin";
+                    }
+                    Files.write(dir.resolve(name), content);
+                }
+            }
+
+            engine = new ObfuscateEngine(stateDir.toFile());
+            engine.processHeader = true;
+            engine.processTextFile = true;
+            engine.processTextFileEnhanced = processTextFileEnhanced;
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteTree() throws IOException {
+            for (var dir : new Path[]{root, stateDir}) {
+                try (Stream<Path> paths = Files.walk(dir)) {
+                    for (var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                        Files.delete(path);
+                }
+            }
+        }
+
+        void process(ProcessMethod method) throws InterruptedException {
+            engine.process(Set.of(root), method, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, engine.getSettingsFingerprint());
+            hidden = method == ProcessMethod.HIDE;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class UnhiddenTree extends Tree {
+
+        /**
+         * Whether the manifest saved by the previous unhide is kept, i.e. the tree is re-hidden incrementally.
+         */
+        @Param({"false", "true"})
+        public boolean keepManifest;
+
+        @Setup(Level.Invocation)
+        public void unhide() throws InterruptedException, IOException {
+            if (hidden)
+                process(ProcessMethod.UNHIDE);
+            if (!keepManifest) {
+                try (Stream<Path> paths = Files.walk(stateDir)) {
+                    for (var path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator)
+                        Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class HiddenTree extends Tree {
+
+        @Setup(Level.Invocation)
+        public void hide() throws InterruptedException {
+            if (!hidden)
+                process(ProcessMethod.HIDE);
+        }
+    }
+
+    @Benchmark
+    public void hide(UnhiddenTree tree) throws InterruptedException {
+        tree.process(ProcessMethod.HIDE);
+    }
+
+    @Benchmark
+    public void unhide(HiddenTree tree) throws InterruptedException {
+        tree.process(ProcessMethod.UNHIDE);
+    }
+}
@@ -0,0 +1,63 @@
+package deltazero.amarok.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sniff the leading {@link ContentSniffer#SNIFF_SIZE} bytes of typical files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ContentSnifferBenchmark {
+
+    @Param({"jpeg", "random", "utf8", "utf16", "json"})
+    public String kind;
+
+    private ByteBuffer head;
+
+    @Setup
+    public void setup() {
+        var bytes = new byte[ContentSniffer.SNIFF_SIZE];
+        switch (kind) {
+            case "jpeg" -> {
+                new Random(42).nextBytes(bytes);
+                bytes[0] = (byte) 0xFF;
+                bytes[1] = (byte) 0xD8;
+                bytes[2] = (byte) 0xFF;
+            }
+            case "random" -> {
+                new Random(42).nextBytes(bytes);
+                bytes[0] = 0x42; // No magic number
+            }
+            case "utf8" -> fill(bytes, "Grüße aus Zürich, 你好世界. Lorem ipsum dolor sit amet.\n".getBytes(UTF_8));
+            case "utf16" -> fill(bytes, "Lorem ipsum dolor sit amet.\r\n".getBytes(UTF_16LE));
+            case "json" -> fill(bytes, "{\"key\": [1, 2, 3], \"value\": \"text\"}\n".getBytes(UTF_8));
+            default -> throw new IllegalArgumentException(kind);
+        }
+        head = ByteBuffer.wrap(bytes);
+    }
+
+    private static void fill(byte[] bytes, byte[] pattern) {
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = pattern[i % pattern.length];
+    }
+
+    @Benchmark
+    public ContentSniffer.Type sniff() {
+        return ContentSniffer.sniff(head);
+    }
+}
@@ -0,0 +1,65 @@
+package deltazero.amarok.filehider;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of direct buffers of a fixed size, so that processing a file allocates no buffer.
+ * <p>
+ * Holding one buffer per worker is enough: a buffer is taken for the duration of a single file and
+ * returned right after. Buffers beyond the capacity are left to the GC. Taking and returning a buffer
+ * allocates nothing itself, not even a queue node.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final ByteBuffer[] buffers;
+    private int numPooled = 0; // Guarded by `this`
+
+    private final LongAdder numAllocated = new LongAdder(), numAcquired = new LongAdder();
+
+    /**
+     * @param capacity Maximum number of idle buffers kept, usually the number of workers.
+     */
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ByteBuffer[Math.max(capacity, 1)];
+    }
+
+    /**
+     * @return A cleared buffer, to be given back with {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquire() {
+        numAcquired.increment();
+        synchronized (this) {
+            if (numPooled > 0) {
+                var buffer = buffers[--numPooled];
+                buffers[numPooled] = null;
+                return buffer.clear();
+            }
+        }
+        numAllocated.increment();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        if (numPooled < buffers.length)
+            buffers[numPooled++] = buffer;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return Number of buffers allocated since the pool was created.
+     * Stays at about the number of workers however many files are processed.
+     */
+    public long getNumAllocated() {
+        return numAllocated.sum();
+    }
+
+    public long getNumAcquired() {
+        return numAcquired.sum();
+    }
+}
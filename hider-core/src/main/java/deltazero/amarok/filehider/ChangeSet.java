@@ -0,0 +1,141 @@
+package deltazero.amarok.filehider;
+
+import androidx.annotation.Nullable;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Paths changed by a hide or unhide run, so that the media store can be brought up to date
+ * with only these, rather than by rescanning the whole targets. Thread-safe.
+ */
+public class ChangeSet {
+
+    public enum Kind {
+        /**
+         * An entry moved alone: a file, a link, or anything else that is not a directory.
+         */
+        FILE,
+        /**
+         * A directory whose entries are renamed, and recorded, on their own.
+         */
+        DIRECTORY,
+        /**
+         * A directory moved together with the whole tree below it, which is not recorded.
+         */
+        TREE
+    }
+
+    /**
+     * @param from Path moved away, or null if the entry came from outside the media store's reach.
+     * @param to   Path moved in, or null if the entry went out of the media store's reach.
+     */
+    private record Change(@Nullable String from, @Nullable String to, Kind kind) {
+    }
+
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final Set<String> rescanDirs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Record a rename that has succeeded.
+     */
+    public void addRename(Path from, Path to, Kind kind) {
+        changes.add(new Change(from.toString(), to.toString(), kind));
+    }
+
+    /**
+     * Record an entry moved out of the media store's reach, e.g. into a private directory.
+     */
+    public void addRemoved(Path path, Kind kind) {
+        changes.add(new Change(path.toString(), null, kind));
+    }
+
+    /**
+     * Record an entry moved in from outside the media store's reach.
+     */
+    public void addAdded(Path path, Kind kind) {
+        changes.add(new Change(null, path.toString(), kind));
+    }
+
+    /**
+     * Record a directory whose media is to be rescanned as a whole, e.g. after its {@code .nomedia} was
+     * added or removed.
+     */
+    public void addRescan(Path dir) {
+        rescanDirs.add(dir.toString());
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty() && rescanDirs.isEmpty();
+    }
+
+    /**
+     * @return Paths of every entry moved away.
+     */
+    public List<String> getRemovedPaths() {
+        var paths = new ArrayList<String>(changes.size());
+        for (var change : changes) {
+            if (change.from != null)
+                paths.add(change.from);
+        }
+        return paths;
+    }
+
+    /**
+     * @return Paths of the trees moved away, whose descendants are gone too.
+     */
+    public List<String> getRemovedTrees() {
+        var paths = new ArrayList<String>();
+        for (var change : changes) {
+            if (change.kind == Kind.TREE && change.from != null)
+                paths.add(change.from);
+        }
+        return paths;
+    }
+
+    /**
+     * @return Final paths of the files and trees moved in, following the renames of the directories
+     * above them made later in the run. Directories whose entries are recorded are left out.
+     */
+    public List<String> getAddedPaths() {
+        Map<String, String> dirMoves = new HashMap<>();
+        for (var change : changes) {
+            if (change.kind != Kind.FILE && change.from != null && change.to != null)
+                dirMoves.put(change.from, change.to);
+        }
+
+        var paths = new ArrayList<String>(changes.size());
+        for (var change : changes) {
+            if (change.kind != Kind.DIRECTORY && change.to != null)
+                paths.add(resolve(change.to, dirMoves));
+        }
+        return paths;
+    }
+
+    public Set<String> getRescanDirs() {
+        return Set.copyOf(rescanDirs);
+    }
+
+    private static String resolve(String path, Map<String, String> dirMoves) {
+        if (dirMoves.isEmpty())
+            return path;
+        var resolved = Paths.get(path);
+        for (var dir = resolved.getParent(); dir != null; dir = dir.getParent()) {
+            var to = dirMoves.get(dir.toString());
+            if (to != null) {
+                // Continue above the new name, which the parent may have been renamed from in turn
+                resolved = Paths.get(to).resolve(dir.relativize(resolved));
+                dir = Paths.get(to);
+            }
+        }
+        return resolved.toString();
+    }
+}
@@ -0,0 +1,286 @@
+package deltazero.amarok.filehider;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Inverts file content in place, i.e. every byte {@code b} becomes {@code ~b}.
+ * <p>
+ * Files smaller than {@link #MAP_THRESHOLD} are memory-mapped and inverted with no copy at all.
+ * Larger files are streamed through a pooled direct buffer with positional reads and writes,
+ * so the file pointer never has to be moved back.
+ * <p>
+ * Either way, the content is inverted chunk by chunk. Interruption of the thread is checked before
+ * every chunk, so cancellation waits for one chunk at most. A {@link Checkpointer} is handed the page
+ * checksums of every chunk before it is overwritten, which is enough to tell afterwards exactly how far
+ * an interrupted inversion went, see {@link #resolveChunk}.
+ * <p>
+ * A strided inversion only inverts one block per stride, see {@link StridedLayout}, each block being a chunk.
+ * <p>
+ * With a pool of buffers, or a small file, inverting allocates nothing but the mapping: the checksum
+ * state is kept per worker thread.
+ */
+public class ContentTransformer {
+
+    /**
+     * Files smaller than this are memory-mapped. Above it, mapping costs more address space
+     * and page-table work than it saves.
+     */
+    public static final long MAP_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * Buffer size used when streaming large files, and chunk size of both ways.
+     */
+    public static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Granularity of the checksums of a chunk.
+     */
+    public static final int CHECKPOINT_PAGE_SIZE = 4096;
+
+    /**
+     * Checksum state of a worker, reused for every chunk it checkpoints.
+     */
+    private static final class Scratch {
+        final int[] pageCrcs = new int[STREAM_BUFFER_SIZE / CHECKPOINT_PAGE_SIZE];
+        final CRC32 crc = new CRC32();
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    public interface Checkpointer {
+        /**
+         * Called before a chunk is overwritten. The checkpoint must be durable against the process
+         * being killed when this returns.
+         *
+         * @param pageCrcs CRC32 of every {@link #CHECKPOINT_PAGE_SIZE} page of the original chunk,
+         *                 the last one possibly shorter. Only valid during the call.
+         */
+        void onChunk(long offset, int length, int[] pageCrcs) throws IOException;
+    }
+
+    /**
+     * Invert the whole content of the channel.
+     *
+     * @param channel Channel opened for both reading and writing.
+     * @param size    Size of the file.
+     */
+    public static void invertWhole(FileChannel channel, long size) throws IOException {
+        invertWhole(channel, size, null);
+    }
+
+    /**
+     * Invert the whole content of the channel, streaming through a buffer of the pool.
+     *
+     * @param pool Pool of {@link #STREAM_BUFFER_SIZE} buffers, or null to allocate one.
+     */
+    public static void invertWhole(FileChannel channel, long size, @Nullable BufferPool pool) throws IOException {
+        invertWhole(channel, 0, size, pool, null);
+    }
+
+    /**
+     * Invert the content of the channel from an offset on, checkpointing every chunk.
+     *
+     * @param from         Offset to start at, where an earlier inversion stopped.
+     * @param checkpointer Receives the checkpoint of every chunk, or null.
+     * @return The offset reached, which is {@code size} unless the thread was interrupted.
+     * The interrupt status is left set.
+     */
+    public static long invertWhole(FileChannel channel, long from, long size, @Nullable BufferPool pool,
+                                   @Nullable Checkpointer checkpointer) throws IOException {
+        if (from >= size)
+            return size;
+        if (size < MAP_THRESHOLD)
+            return invertMapped(channel, from, size, checkpointer);
+
+        var buffer = pool != null ? pool.acquire() : ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+        try {
+            return invertStreamed(channel, from, size, buffer, checkpointer);
+        } finally {
+            if (pool != null)
+                pool.release(buffer);
+        }
+    }
+
+    /**
+     * Invert the blocks of a strided layout from an offset on, checkpointing every block.
+     *
+     * @param from Offset of the block to start at, a multiple of the stride.
+     * @param pool Pool of {@link #STREAM_BUFFER_SIZE} buffers, or null to allocate one.
+     * @return The offset reached, which is {@code size} unless the thread was interrupted.
+     * The interrupt status is left set.
+     */
+    public static long invertStrided(FileChannel channel, long from, long size, StridedLayout layout,
+                                     @Nullable BufferPool pool, @Nullable Checkpointer checkpointer) throws IOException {
+        if (from >= size)
+            return size;
+
+        var buffer = pool != null ? pool.acquire() : ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+        var scratch = SCRATCH.get();
+        try {
+            for (long position = from; position < size; position += layout.getStrideSize()) {
+                if (Thread.currentThread().isInterrupted())
+                    return position;
+
+                buffer.clear().limit((int) Math.min(layout.getBlockSize(), size - position));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0)
+                        break;
+                }
+
+                buffer.flip();
+                int length = buffer.limit();
+                if (checkpointer != null)
+                    checkpointer.onChunk(position, length, computePageCrcs(buffer, 0, length, scratch));
+                InversionKernel.invert(buffer, 0, length);
+
+                while (buffer.hasRemaining())
+                    channel.write(buffer, position + buffer.position());
+            }
+            return size;
+        } finally {
+            if (pool != null)
+                pool.release(buffer);
+        }
+    }
+
+    /**
+     * Bring a chunk whose inversion may have been interrupted to the fully inverted state.
+     * <p>
+     * Each page is either untouched, inverted, or inverted up to some byte, as writes proceed in order.
+     * Which one is told by comparing the checksums of the page, and of its candidate original contents,
+     * with the checksum taken before the chunk was overwritten.
+     *
+     * @param pageCrcs Page checksums from the checkpoint of the chunk.
+     * @return False if a page matches no candidate, and is left untouched.
+     */
+    public static boolean resolveChunk(FileChannel channel, long offset, int length, int[] pageCrcs)
+            throws IOException {
+        var chunk = ByteBuffer.allocate(length);
+        while (chunk.hasRemaining()) {
+            if (channel.read(chunk, offset + chunk.position()) < 0)
+                return false;
+        }
+
+        byte[] current = chunk.array();
+        byte[] inverted = current.clone();
+        InversionKernel.invert(inverted, 0, length);
+        var crc = new CRC32();
+        boolean resolved = true;
+
+        for (int page = 0; page * CHECKPOINT_PAGE_SIZE < length; page++) {
+            int start = page * CHECKPOINT_PAGE_SIZE;
+            int end = Math.min(start + CHECKPOINT_PAGE_SIZE, length);
+
+            // Untouched: complete it. Inverted: nothing left to do.
+            if (crcOf(crc, current, current, start, start, end) == pageCrcs[page]) {
+                System.arraycopy(inverted, start, current, start, end - start);
+                continue;
+            }
+            if (crcOf(crc, inverted, inverted, start, start, end) == pageCrcs[page])
+                continue;
+
+            // Torn: find the byte the inversion stopped at, and complete the rest
+            int split = -1;
+            for (int i = start + 1; i < end && split < 0; i++) {
+                if (crcOf(crc, current, inverted, start, i, end) == pageCrcs[page])
+                    split = i;
+            }
+            if (split < 0) {
+                resolved = false;
+                continue;
+            }
+            System.arraycopy(inverted, split, current, split, end - split);
+        }
+
+        chunk.clear();
+        while (chunk.hasRemaining())
+            channel.write(chunk, offset + chunk.position());
+        return resolved;
+    }
+
+    /**
+     * @return CRC32 of what the original content would be if the inversion stopped at {@code split}:
+     * the inverse of {@code current} before it, and {@code current} itself from it on.
+     * {@code inverted} holds the inverse of {@code current}.
+     */
+    private static int crcOf(CRC32 crc, byte[] current, byte[] inverted, int start, int split, int end) {
+        crc.reset();
+        crc.update(inverted, start, split - start);
+        crc.update(current, split, end - split);
+        return (int) crc.getValue();
+    }
+
+    private static long invertMapped(FileChannel channel, long from, long size, @Nullable Checkpointer checkpointer)
+            throws IOException {
+        if (Thread.currentThread().isInterrupted())
+            return from;
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, from, size - from);
+        var scratch = SCRATCH.get();
+        int position = 0;
+
+        while (position < buffer.limit()) {
+            if (Thread.currentThread().isInterrupted())
+                break;
+            int length = Math.min(STREAM_BUFFER_SIZE, buffer.limit() - position);
+            if (checkpointer != null)
+                checkpointer.onChunk(from + position, length, computePageCrcs(buffer, position, length, scratch));
+            InversionKernel.invert(buffer, position, position + length);
+            position += length;
+        }
+
+        // Flush before the caller restores lastModified, so that a late write-back
+        // (e.g. through FUSE) does not touch the timestamp again.
+        buffer.force();
+        return from + position;
+    }
+
+    private static long invertStreamed(FileChannel channel, long from, long size, ByteBuffer buffer,
+                                       @Nullable Checkpointer checkpointer) throws IOException {
+        var scratch = SCRATCH.get();
+        long position = from;
+
+        while (position < size) {
+            if (Thread.currentThread().isInterrupted())
+                break;
+
+            buffer.clear();
+            int numBytesRead = channel.read(buffer, position);
+            if (numBytesRead <= 0)
+                break;
+
+            buffer.flip();
+            if (checkpointer != null)
+                checkpointer.onChunk(position, numBytesRead, computePageCrcs(buffer, 0, numBytesRead, scratch));
+            InversionKernel.invert(buffer, 0, numBytesRead);
+
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * @return The page checksums, in the array of the scratch. The position and limit of {@code buffer}
+     * are moved over the pages, and restored afterwards.
+     */
+    private static int[] computePageCrcs(ByteBuffer buffer, int offset, int length, Scratch scratch) {
+        int position = buffer.position(), limit = buffer.limit();
+        var crc = scratch.crc;
+        for (int i = 0; i * CHECKPOINT_PAGE_SIZE < length; i++) {
+            int start = offset + i * CHECKPOINT_PAGE_SIZE;
+            buffer.limit(Math.min(start + CHECKPOINT_PAGE_SIZE, offset + length)).position(start);
+            crc.reset();
+            crc.update(buffer);
+            scratch.pageCrcs[i] = (int) crc.getValue();
+        }
+        buffer.limit(limit).position(position);
+        return scratch.pageCrcs;
+    }
+}
@@ -0,0 +1,114 @@
+package deltazero.amarok.filehider;
+
+import androidx.annotation.Nullable;
+
+import deltazero.amarok.utils.HiderLog;
+
+/**
+ * Set of files by identity, i.e. their {@link java.nio.file.attribute.BasicFileAttributes#fileKey() fileKey},
+ * regardless of the path they are reached through.
+ * <p>
+ * Keys are compared with {@code equals}, which on Unix compares device and inode numbers, so no format
+ * of the key is relied on. They are held in an open-addressing table of references: adding one keeps the
+ * key object the attribute read has already allocated, and allocates nothing itself. Thread-safe.
+ */
+public class FileKeySet {
+
+    private final static String TAG = "FileKeySet";
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Key of every slot, null marking an empty slot. At most half full.
+     */
+    private Object[] table = new Object[INITIAL_CAPACITY];
+    private int size = 0;
+    private boolean warnedUnknownKey = false;
+
+    /**
+     * @param fileKey Key from {@link java.nio.file.attribute.BasicFileAttributes#fileKey()}.
+     * @return False if the file is already in the set. True if it was added, or if its key is unknown,
+     * so that files without identity are never taken for duplicates.
+     */
+    public synchronized boolean add(@Nullable Object fileKey) {
+        if (fileKey == null) {
+            if (!warnedUnknownKey) {
+                HiderLog.w(TAG, "File keys are unavailable, files reached through several paths are not deduplicated");
+                warnedUnknownKey = true;
+            }
+            return true;
+        }
+
+        int mask = table.length - 1;
+        for (int slot = hash(fileKey) & mask; ; slot = (slot + 1) & mask) {
+            var key = table[slot];
+            if (key == null) {
+                table[slot] = fileKey;
+                if (++size > table.length / 2)
+                    grow();
+                return true;
+            }
+            if (key.equals(fileKey))
+                return false;
+        }
+    }
+
+    /**
+     * Release a file added by {@link #add(Object)}, e.g. once processing it has failed.
+     *
+     * @return False if the file is not in the set, or its key is unknown.
+     */
+    public synchronized boolean remove(@Nullable Object fileKey) {
+        if (fileKey == null)
+            return false;
+
+        int mask = table.length - 1;
+        int hole = hash(fileKey) & mask;
+        while (!fileKey.equals(table[hole])) {
+            if (table[hole] == null)
+                return false;
+            hole = (hole + 1) & mask;
+        }
+
+        // Shift back the following keys of the cluster that would no longer be reached past the hole
+        for (int slot = (hole + 1) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            int home = hash(table[slot]) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+        table[hole] = null;
+        size--;
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Double the capacity, keeping the table at most half full.
+     */
+    private void grow() {
+        var old = table;
+        table = new Object[2 * old.length];
+        int mask = table.length - 1;
+        for (var key : old) {
+            if (key == null)
+                continue;
+            int slot = hash(key) & mask;
+            while (table[slot] != null)
+                slot = (slot + 1) & mask;
+            table[slot] = key;
+        }
+    }
+
+    /**
+     * Spread the hash code of the key over the table. On Unix, it is the plain sum of the device and inode numbers.
+     */
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+}
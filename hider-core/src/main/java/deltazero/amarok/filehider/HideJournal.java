@@ -0,0 +1,363 @@
+package deltazero.amarok.filehider;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import deltazero.amarok.utils.HiderLog;
+
+/**
+ * Append-only journal of a hide / unhide run, used to recover from a killed process.
+ * <p>
+ * The records that protect an operation, i.e. the start of a content transform and each of its chunks,
+ * reach the kernel before the operation starts, so they survive the process being killed at any point.
+ * The records of what has finished, a transform or a whole directory, are buffered. Losing them only
+ * makes the next run redo that work. Records are fsync-ed in batches ({@link #SYNC_EVERY_RECORDS} records
+ * or {@link #SYNC_INTERVAL_MS}), to also survive most power losses.
+ * <p>
+ * Renames are not journaled. A resumed run skips the finished directories, and walks the rest again,
+ * where the entries already renamed are told by their marks.
+ * <p>
+ * A content transform is logged together with the original leading bytes of the file. Since the
+ * transform inverts these bytes first, comparing them with the file tells whether an interrupted
+ * transform has started. Whole-file and strided transforms also log a checkpoint before every chunk,
+ * telling how far an interrupted transform went.
+ */
+public class HideJournal {
+
+    private static final String TAG = "HideJournal";
+
+    private static final int SYNC_EVERY_RECORDS = 256;
+    private static final long SYNC_INTERVAL_MS = 1000;
+
+    private static final byte RECORD_BEGIN = 'B';
+    /**
+     * Only written by earlier versions, skipped when recovering.
+     */
+    private static final byte RECORD_RENAME = 'R';
+    private static final byte RECORD_TRANSFORM = 'X';
+    private static final byte RECORD_TRANSFORM_DONE = 'C';
+    private static final byte RECORD_CHUNK = 'K';
+    private static final byte RECORD_DIR_DONE = 'D';
+
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    /**
+     * Records not written yet. Exposes its array, so that a batch is copied straight into {@link #batch}.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(BATCH_SIZE);
+        }
+
+        void copyTo(ByteBuffer target) {
+            target.put(buf, 0, count);
+        }
+    }
+
+    private final File file;
+    private final RecordBuffer pending = new RecordBuffer();
+    private final DataOutputStream out = new DataOutputStream(pending);
+    /**
+     * Direct buffer the records are written from, reused for every batch.
+     */
+    private ByteBuffer batch;
+
+    private FileChannel channel;
+    private int numUnsyncedRecords = 0;
+    private long lastSyncTime = 0;
+
+    /**
+     * State of an unfinished run, read back from the journal.
+     */
+    public static class Recovery {
+        public final ProcessMethod method;
+        /**
+         * Directories whose whole subtree has been processed, by their path after renaming.
+         */
+        public final Set<Path> finishedDirs = new HashSet<>();
+        /**
+         * Content transforms that were logged as started but not as finished.
+         */
+        public final List<PendingTransform> pendingTransforms = new ArrayList<>();
+
+        Recovery(ProcessMethod method) {
+            this.method = method;
+        }
+    }
+
+    public static class PendingTransform {
+        public final Path path;
+        public final String mark;
+        public final long lastModified;
+        /**
+         * Leading bytes of the file before the transform.
+         */
+        public final byte[] originalHead;
+        /**
+         * Last chunk of a whole-file or strided transform that was about to be overwritten, with the
+         * checksums of its original pages, see {@link ContentTransformer#resolveChunk}. Chunks before it
+         * are inverted, chunks after it are untouched. Offset is -1 if no chunk was logged.
+         */
+        public long chunkOffset = -1;
+        public int chunkLength;
+        public int[] chunkPageCrcs;
+
+        PendingTransform(Path path, String mark, long lastModified, byte[] originalHead) {
+            this.path = path;
+            this.mark = mark;
+            this.lastModified = lastModified;
+            this.originalHead = originalHead;
+        }
+    }
+
+    public HideJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Read back the journal left by a run that did not finish.
+     *
+     * @return The recovered state, or null if the last run finished normally.
+     */
+    public Recovery recover() {
+        if (!file.exists())
+            return null;
+
+        Recovery recovery = null;
+        var pendingTransforms = new LinkedHashMap<Path, PendingTransform>();
+
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                // Stop at a record torn by the kill
+                try {
+                    switch (type) {
+                        case RECORD_BEGIN -> {
+                            var method = ProcessMethod.values()[in.readByte()];
+                            if (recovery == null || recovery.method != method) {
+                                recovery = new Recovery(method);
+                                pendingTransforms.clear();
+                            }
+                        }
+                        case RECORD_RENAME -> {
+                            in.readUTF();
+                            in.readUTF();
+                        }
+                        case RECORD_TRANSFORM -> {
+                            var path = Paths.get(in.readUTF());
+                            var mark = in.readUTF();
+                            var lastModified = in.readLong();
+                            var head = new byte[in.readUnsignedByte()];
+                            in.readFully(head);
+                            pendingTransforms.put(path, new PendingTransform(path, mark, lastModified, head));
+                        }
+                        case RECORD_TRANSFORM_DONE -> pendingTransforms.remove(Paths.get(in.readUTF()));
+                        case RECORD_CHUNK -> {
+                            var path = Paths.get(in.readUTF());
+                            var offset = in.readLong();
+                            var length = in.readInt();
+                            var pageCrcs = new int[in.readUnsignedShort()];
+                            for (int i = 0; i < pageCrcs.length; i++)
+                                pageCrcs[i] = in.readInt();
+                            var pending = pendingTransforms.get(path);
+                            if (pending != null) {
+                                pending.chunkOffset = offset;
+                                pending.chunkLength = length;
+                                pending.chunkPageCrcs = pageCrcs;
+                            }
+                        }
+                        case RECORD_DIR_DONE -> {
+                            var dir = Paths.get(in.readUTF());
+                            if (recovery != null)
+                                recovery.finishedDirs.add(dir);
+                        }
+                        default -> throw new IOException("Unknown record type " + type);
+                    }
+                } catch (EOFException e) {
+                    HiderLog.w(TAG, "Found torn record at the end of journal");
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to read journal: ", e);
+        }
+
+        if (recovery != null)
+            recovery.pendingTransforms.addAll(pendingTransforms.values());
+        return recovery;
+    }
+
+    /**
+     * Start journaling a run.
+     *
+     * @param method Process method of the run.
+     * @param resume Whether the run resumes the unfinished run with the same method.
+     *               If false, the previous journal is discarded.
+     *               If the journal cannot be opened, the run continues without journaling.
+     */
+    public synchronized void begin(ProcessMethod method, boolean resume) {
+        var options = resume
+                ? new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND}
+                : new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING};
+        try {
+            channel = FileChannel.open(file.toPath(), options);
+            lastSyncTime = System.currentTimeMillis();
+
+            out.writeByte(RECORD_BEGIN);
+            out.writeByte(method.ordinal());
+            flush(true);
+        } catch (IOException e) {
+            // Journaling is best-effort, never block hiding because of it.
+            HiderLog.w(TAG, "Failed to open journal, continue without it: ", e);
+            channel = null;
+        }
+    }
+
+    /**
+     * Log a content transform that is about to start. The record reaches the kernel before returning.
+     *
+     * @param head Leading bytes of the file before the transform, from position to limit. At most 255 bytes.
+     */
+    public synchronized void logTransform(Path path, String mark, long lastModified, ByteBuffer head) {
+        try {
+            out.writeByte(RECORD_TRANSFORM);
+            out.writeUTF(path.toString());
+            out.writeUTF(mark);
+            out.writeLong(lastModified);
+            out.writeByte(head.remaining());
+            for (int i = head.position(); i < head.limit(); i++)
+                out.writeByte(head.get(i));
+            flush(false);
+            writePending();
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to write journal: ", e);
+        }
+    }
+
+    /**
+     * Log a chunk of a whole-file or strided transform that is about to be overwritten. The record reaches the kernel
+     * before returning, and implies that the previous chunks are done.
+     *
+     * @param pageCrcs Checksums of the original pages of the chunk, see {@link ContentTransformer.Checkpointer}.
+     */
+    public synchronized void logChunk(Path path, long offset, int length, int[] pageCrcs) {
+        try {
+            int numPages = (length + ContentTransformer.CHECKPOINT_PAGE_SIZE - 1) / ContentTransformer.CHECKPOINT_PAGE_SIZE;
+            out.writeByte(RECORD_CHUNK);
+            out.writeUTF(path.toString());
+            out.writeLong(offset);
+            out.writeInt(length);
+            out.writeShort(numPages);
+            for (int i = 0; i < numPages; i++)
+                out.writeInt(pageCrcs[i]);
+            flush(false);
+            writePending();
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to write journal: ", e);
+        }
+    }
+
+    public synchronized void logTransformDone(Path path) {
+        try {
+            out.writeByte(RECORD_TRANSFORM_DONE);
+            out.writeUTF(path.toString());
+            flush(false);
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to write journal: ", e);
+        }
+    }
+
+    /**
+     * Log that a directory and everything below it has been processed.
+     *
+     * @param dir Path of the directory after renaming.
+     */
+    public synchronized void logDirectoryDone(Path dir) {
+        try {
+            out.writeByte(RECORD_DIR_DONE);
+            out.writeUTF(dir.toString());
+            flush(false);
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to write journal: ", e);
+        }
+    }
+
+    /**
+     * Stop journaling. If the run has finished, the journal is removed.
+     */
+    public synchronized void close(boolean finished) {
+        if (channel == null)
+            return;
+        try {
+            flush(true);
+            channel.close();
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to close journal: ", e);
+        }
+        channel = null;
+        if (finished && !file.delete())
+            HiderLog.w(TAG, "Failed to remove journal: " + file);
+    }
+
+    private void flush(boolean sync) throws IOException {
+        if (channel == null) {
+            pending.reset();
+            return;
+        }
+        numUnsyncedRecords++;
+        long now = System.currentTimeMillis();
+        if (sync || numUnsyncedRecords >= SYNC_EVERY_RECORDS || now - lastSyncTime >= SYNC_INTERVAL_MS) {
+            writePending();
+            channel.force(false);
+            numUnsyncedRecords = 0;
+            lastSyncTime = now;
+        } else if (pending.size() >= BATCH_SIZE) {
+            writePending();
+        }
+    }
+
+    private void writePending() throws IOException {
+        if (channel == null) {
+            pending.reset();
+            return;
+        }
+        // Room for a batch overflowed by its last record, which only a huge record exceeds
+        if (batch == null || batch.capacity() < pending.size())
+            batch = ByteBuffer.allocateDirect(Math.max(2 * BATCH_SIZE, pending.size()));
+        batch.clear();
+        pending.copyTo(batch);
+        batch.flip();
+        write(channel, batch);
+        pending.reset();
+    }
+
+    /**
+     * Write records to the journal file. Package-private, so that tests can simulate the process being killed.
+     */
+    void write(FileChannel channel, ByteBuffer records) throws IOException {
+        while (records.hasRemaining())
+            channel.write(records);
+    }
+}
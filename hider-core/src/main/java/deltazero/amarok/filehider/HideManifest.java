@@ -0,0 +1,124 @@
+package deltazero.amarok.filehider;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import deltazero.amarok.utils.HiderLog;
+
+/**
+ * Snapshot of a hide target taken at unhide time: for each file, its path relative to the target,
+ * its size and lastModified time, and the obfuscation mark it carried.
+ * <p>
+ * On the next hide, a file whose size and lastModified time are unchanged gets the same mark again,
+ * without sniffing its content. The manifest is only valid for the obfuscation settings it was
+ * recorded with.
+ */
+public class HideManifest {
+
+    private static final String TAG = "HideManifest";
+    private static final int MAGIC = 0x414D4B4D; // "AMKM"
+    private static final int VERSION = 1;
+
+    private final int settings;
+    private final Map<String, Entry> entries;
+
+    private record Entry(long size, long lastModified, String mark) {
+    }
+
+    /**
+     * @param settings Fingerprint of the obfuscation settings the recorded marks were chosen with.
+     */
+    public HideManifest(int settings) {
+        this(settings, new ConcurrentHashMap<>());
+    }
+
+    private HideManifest(int settings, Map<String, Entry> entries) {
+        this.settings = settings;
+        this.entries = entries;
+    }
+
+    /**
+     * Load a manifest.
+     *
+     * @param settings Fingerprint of the current obfuscation settings.
+     * @return The manifest, or null if it does not exist, cannot be read or was recorded with other settings.
+     */
+    @Nullable
+    public static HideManifest load(File file, int settings) {
+        if (!file.isFile())
+            return null;
+
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+            if (in.readInt() != settings)
+                return null;
+
+            int numEntries = in.readInt();
+            var entries = new ConcurrentHashMap<String, Entry>(numEntries * 4 / 3 + 1);
+            for (int i = 0; i < numEntries; i++) {
+                var relativePath = in.readUTF();
+                entries.put(relativePath, new Entry(in.readLong(), in.readLong(), in.readUTF()));
+            }
+            return new HideManifest(settings, entries);
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to load manifest " + file + ": ", e);
+            return null;
+        }
+    }
+
+    public void save(File file) {
+        // noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(settings);
+            out.writeInt(entries.size());
+            for (var e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().lastModified);
+                out.writeUTF(e.getValue().mark);
+            }
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to save manifest " + file + ": ", e);
+            // noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * Record a file. Safe to be called concurrently.
+     */
+    public void put(String relativePath, long size, long lastModified, String mark) {
+        entries.put(relativePath, new Entry(size, lastModified, mark));
+    }
+
+    /**
+     * Get the mark recorded for a file.
+     *
+     * @return The mark, or null if the file is new or has changed since it was recorded.
+     */
+    @Nullable
+    public String getMark(String relativePath, long size, long lastModified) {
+        var entry = entries.get(relativePath);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified)
+            return null;
+        return entry.mark;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,48 @@
+package deltazero.amarok.filehider;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Size and predicted cost of a hide or unhide, computed by a dry run that only reads attributes.
+ * <p>
+ * The transform of each file is predicted from its name, size and the manifest of the last unhide,
+ * without opening it, so files sniffed as text by the enhanced mode are counted as header transforms.
+ * Strided transforms are counted as header transforms too, as they cost little next to whole-file ones.
+ * A plan may carry the directory listings of its dry run, so that executing it does not list the trees again.
+ */
+public class HidePlan {
+
+    public final long numFiles, numDirs, totalBytes;
+    public final long numWholeFiles, numHeaderFiles, numUntouchedFiles, wholeBytes;
+    public final long predictedMillis;
+
+    @Nullable
+    final ParallelFileWalker.Listings listings;
+
+    HidePlan(long numFiles, long numDirs, long totalBytes,
+             long numWholeFiles, long numHeaderFiles, long numUntouchedFiles, long wholeBytes,
+             long predictedMillis, @Nullable ParallelFileWalker.Listings listings) {
+        this.numFiles = numFiles;
+        this.numDirs = numDirs;
+        this.totalBytes = totalBytes;
+        this.numWholeFiles = numWholeFiles;
+        this.numHeaderFiles = numHeaderFiles;
+        this.numUntouchedFiles = numUntouchedFiles;
+        this.wholeBytes = wholeBytes;
+        this.predictedMillis = predictedMillis;
+        this.listings = listings;
+    }
+
+    /**
+     * @return Number of entries to be processed, as counted by {@link ProgressTracker}.
+     */
+    public long getNumEntries() {
+        return numFiles + numDirs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d files (%d whole, %d header, %d untouched), %d dirs, %d bytes, ~%d ms",
+                numFiles, numWholeFiles, numHeaderFiles, numUntouchedFiles, numDirs, totalBytes, predictedMillis);
+    }
+}
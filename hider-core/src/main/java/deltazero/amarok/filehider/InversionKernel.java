@@ -0,0 +1,48 @@
+package deltazero.amarok.filehider;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bitwise-NOT kernel shared by the header and whole-file transforms.
+ * <p>
+ * The bulk of the range is inverted as 8-byte words with absolute {@code getLong} / {@code putLong}, which
+ * the JIT compiles to plain word loads and stores, and can unroll. The remaining tail is inverted byte by
+ * byte. Since NOT is applied bit by bit, the byte order does not matter. No view of the buffer is created,
+ * so inverting allocates nothing.
+ */
+public final class InversionKernel {
+
+    private InversionKernel() {
+    }
+
+    /**
+     * Invert bytes of {@code buffer} in range [{@code from}, {@code to}).
+     * The position and limit of {@code buffer} are left untouched.
+     */
+    public static void invert(ByteBuffer buffer, int from, int to) {
+        // Absolute accesses are bounded by the limit, which the range may go past
+        int limit = buffer.limit();
+        if (to > limit)
+            buffer.limit(to);
+
+        int wordsEnd = from + ((to - from) & ~7);
+        for (int i = from; i < wordsEnd; i += 8) {
+            buffer.putLong(i, buffer.getLong(i) ^ -1L);
+        }
+
+        for (int i = wordsEnd; i < to; i++) {
+            buffer.put(i, (byte) ~buffer.get(i));
+        }
+        buffer.limit(limit);
+    }
+
+    /**
+     * Invert {@code length} bytes of {@code bytes} starting at {@code offset}.
+     */
+    public static void invert(byte[] bytes, int offset, int length) {
+        // A plain array loop, which the JIT vectorizes
+        for (int i = offset; i < offset + length; i++) {
+            bytes[i] = (byte) ~bytes[i];
+        }
+    }
+}
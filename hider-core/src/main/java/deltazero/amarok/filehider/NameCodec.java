@@ -0,0 +1,200 @@
+package deltazero.amarok.filehider;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+import deltazero.amarok.utils.FileHiderUtil;
+
+/**
+ * Encodes filenames into their obfuscated form, {@code "." + base64(name) + mark}, and back.
+ * <p>
+ * Uses URL-safe Base64 without padding or line wrapping, the same alphabet as
+ * {@code android.util.Base64} with {@code URL_SAFE | NO_WRAP | NO_PADDING}, so names
+ * hidden by earlier versions are still decoded.
+ * <p>
+ * Called once per entry, so the UTF-8 and Base64 steps run over per-thread scratch arrays
+ * and the resulting string is the only allocation. Output is identical to
+ * {@link java.util.Base64#getUrlEncoder()}, which has no offset-length variant to reuse buffers with.
+ */
+public final class NameCodec {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int[] DECODE_TABLE = new int[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, -1);
+        for (int i = 0; i < ALPHABET.length; i++)
+            DECODE_TABLE[ALPHABET[i]] = i;
+    }
+
+    /**
+     * Scratch arrays of the current thread, grown on demand.
+     * Filenames are limited to 255 bytes on common filesystems, so they rarely grow.
+     */
+    private static final class Scratch {
+        byte[] bytes = new byte[1024];
+        char[] chars = new char[1024];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private NameCodec() {
+    }
+
+    public static String encode(String filename, String mark) {
+        var scratch = SCRATCH.get();
+
+        // Each char takes at most 3 bytes in UTF-8, a surrogate pair 4 bytes for 2 chars
+        if (scratch.bytes.length < filename.length() * 3)
+            scratch.bytes = new byte[filename.length() * 3];
+        int numBytes = encodeUtf8(filename, scratch.bytes);
+
+        int numChars = 1 + (numBytes * 4 + 2) / 3 + mark.length();
+        if (scratch.chars.length < numChars)
+            scratch.chars = new char[numChars];
+        char[] chars = scratch.chars;
+
+        chars[0] = '.';
+        int end = encodeBase64(scratch.bytes, numBytes, chars, 1);
+        mark.getChars(0, mark.length(), chars, end);
+        return new String(chars, 0, numChars);
+    }
+
+    /**
+     * @param mark Mark of the encoded filename, from {@link FileHiderUtil#matchMark(String)}.
+     * @return The original filename, or null if the encoded name is malformed.
+     */
+    @Nullable
+    public static String decode(String encodedFilename, FileHiderUtil.Mark mark) {
+        if (mark == FileHiderUtil.Mark.NONE)
+            return null;
+        return decode(encodedFilename, mark.getPayloadStart(), mark.getPayloadEnd(encodedFilename));
+    }
+
+    /**
+     * Decode the Base64 chars of {@code encoded} between {@code start} and {@code end}.
+     *
+     * @return The original filename, or null if the chars are malformed.
+     */
+    @Nullable
+    static String decode(String encoded, int start, int end) {
+        var scratch = SCRATCH.get();
+        if (scratch.bytes.length < end - start)
+            scratch.bytes = new byte[end - start];
+
+        int numBytes = decodeBase64(encoded, start, end, scratch.bytes);
+        if (numBytes < 0)
+            return null;
+        return new String(scratch.bytes, 0, numBytes, UTF_8);
+    }
+
+    /**
+     * Same bytes as {@code s.getBytes(UTF_8)}, including '?' for unpaired surrogates.
+     *
+     * @return Number of bytes written.
+     */
+    private static int encodeUtf8(String s, byte[] dst) {
+        int n = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[n++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[n++] = (byte) (0xC0 | c >> 6);
+                dst[n++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    dst[n++] = (byte) (0xF0 | cp >> 18);
+                    dst[n++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    dst[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    dst[n++] = (byte) (0x80 | cp & 0x3F);
+                } else {
+                    dst[n++] = '?';
+                }
+            } else {
+                dst[n++] = (byte) (0xE0 | c >> 12);
+                dst[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                dst[n++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return Index in {@code dst} after the last char written.
+     */
+    private static int encodeBase64(byte[] src, int len, char[] dst, int off) {
+        int i = 0;
+        for (; i + 3 <= len; i += 3) {
+            int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | src[i + 2] & 0xFF;
+            dst[off++] = ALPHABET[bits >>> 18];
+            dst[off++] = ALPHABET[bits >>> 12 & 0x3F];
+            dst[off++] = ALPHABET[bits >>> 6 & 0x3F];
+            dst[off++] = ALPHABET[bits & 0x3F];
+        }
+        if (len - i == 1) {
+            int bits = (src[i] & 0xFF) << 16;
+            dst[off++] = ALPHABET[bits >>> 18];
+            dst[off++] = ALPHABET[bits >>> 12 & 0x3F];
+        } else if (len - i == 2) {
+            int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8;
+            dst[off++] = ALPHABET[bits >>> 18];
+            dst[off++] = ALPHABET[bits >>> 12 & 0x3F];
+            dst[off++] = ALPHABET[bits >>> 6 & 0x3F];
+        }
+        return off;
+    }
+
+    /**
+     * Accepts what {@link java.util.Base64#getUrlDecoder()} accepts: optional but
+     * correct padding, and no dangling single char.
+     *
+     * @return Number of bytes written, or -1 if the input is malformed.
+     */
+    private static int decodeBase64(String src, int start, int end, byte[] dst) {
+        int n = 0, bits = 0, numSextets = 0;
+        int i = start;
+        for (; i < end; i++) {
+            char c = src.charAt(i);
+            if (c == '=')
+                break;
+            int sextet = c < 128 ? DECODE_TABLE[c] : -1;
+            if (sextet < 0)
+                return -1;
+            bits = bits << 6 | sextet;
+            if (++numSextets == 4) {
+                dst[n++] = (byte) (bits >> 16);
+                dst[n++] = (byte) (bits >> 8);
+                dst[n++] = (byte) bits;
+                bits = 0;
+                numSextets = 0;
+            }
+        }
+
+        if (i < end) {
+            // Padding completes the last group, and nothing may follow it
+            int numPadding = 4 - numSextets;
+            if (numSextets < 2 || end - i != numPadding)
+                return -1;
+            for (; i < end; i++) {
+                if (src.charAt(i) != '=')
+                    return -1;
+            }
+        }
+
+        if (numSextets == 1) {
+            return -1;
+        } else if (numSextets == 2) {
+            dst[n++] = (byte) (bits >> 4);
+        } else if (numSextets == 3) {
+            dst[n++] = (byte) (bits >> 10);
+            dst[n++] = (byte) (bits >> 2);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,238 @@
+package deltazero.amarok.filehider;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import deltazero.amarok.utils.FileHiderUtil;
+import deltazero.amarok.utils.HiderLog;
+
+/**
+ * Original names of the entries of a directory whose encoded name would exceed the filename limit.
+ * <p>
+ * Such entries get a short opaque name instead, {@code ".~" + id + mark}, with a fixed-length id
+ * derived from the original name, and the name itself is appended to a hidden index file in the directory,
+ * Base64-encoded by {@link NameCodec} like the names of the other entries.
+ * As the id only depends on the name, hiding the same name twice gives the same entry, and the hidden
+ * name can be found again without the table. The index file is memory-mapped to look names up on unhide,
+ * and removed once no entry of the directory refers to it anymore.
+ * <p>
+ * A record reaches the kernel before the rename it protects, like {@link HideJournal} records,
+ * and the index file is fsync-ed when the directory is done.
+ */
+public class NameTable {
+
+    private static final String TAG = "NameTable";
+
+    public static final String FILENAME = ".amk_names";
+    /**
+     * Longest filename in bytes on common filesystems, NAME_MAX.
+     */
+    public static final int MAX_FILENAME_LENGTH = 255;
+    public static final char ID_PREFIX = '~';
+
+    private static final int MAGIC = 0x414D4B4E; // "AMKN"
+    private static final int ID_LENGTH = 16;
+
+    private final Path dir, file;
+
+    // Guarded by `this`
+    @Nullable
+    private Map<Long, String> names;
+    @Nullable
+    private FileChannel channel;
+
+    public NameTable(Path dir) {
+        this.dir = dir;
+        this.file = dir.resolve(FILENAME);
+    }
+
+    /**
+     * @return The short name for an entry, {@code ".~" + id + mark}.
+     */
+    public static String getShortName(String filename, String mark) {
+        return "." + ID_PREFIX + formatId(getId(filename)) + mark;
+    }
+
+    /**
+     * Record the original name of an entry about to be renamed to its {@link #getShortName short name}.
+     *
+     * @return False if the name could not be recorded, or its id is taken by another name.
+     */
+    public synchronized boolean add(String filename) {
+        long id = getId(filename);
+        try {
+            var names = load();
+            var existing = names.get(id);
+            if (existing != null) {
+                if (existing.equals(filename))
+                    return true;
+                HiderLog.w(TAG, String.format("Id of %s is taken by %s in %s", filename, existing, dir));
+                return false;
+            }
+
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                if (channel.size() == 0)
+                    channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, MAGIC));
+            }
+
+            // Without the leading dot and the empty mark
+            var bytes = NameCodec.encode(filename, "").getBytes(US_ASCII);
+            int length = bytes.length - 1;
+            var record = ByteBuffer.allocate(Long.BYTES + Short.BYTES + length)
+                    .putLong(id).putShort((short) length).put(bytes, 1, length).flip();
+            long position = channel.size();
+            while (record.hasRemaining())
+                position += channel.write(record, position);
+
+            names.put(id, filename);
+            return true;
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to add name to " + file + ": ", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param shortName A short name, checked with {@link FileHiderUtil#isNameTableId(String)}.
+     * @return The original name, or null if it is not in the table.
+     */
+    @Nullable
+    public synchronized String lookup(String shortName, FileHiderUtil.Mark mark) {
+        var id = parseId(shortName, mark);
+        if (id == null)
+            return null;
+
+        try {
+            return load().get(id);
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to read " + file + ": ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Flush and close the index file.
+     *
+     * @param removeIfUnused Whether to remove the index file if no entry of the directory refers to it.
+     */
+    public synchronized void close(boolean removeIfUnused) {
+        if (channel != null) {
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                HiderLog.w(TAG, "Failed to close " + file + ": ", e);
+            }
+            channel = null;
+        }
+
+        if (!removeIfUnused)
+            return;
+        // Marks may carry parameters, so look for short names in the listing rather than by path
+        try (var entries = Files.newDirectoryStream(dir)) {
+            var names = load();
+            for (var entry : entries) {
+                var filename = entry.getFileName().toString();
+                var mark = FileHiderUtil.matchMark(filename);
+                if (mark != FileHiderUtil.Mark.NONE && FileHiderUtil.isNameTableId(filename)
+                        && names.containsKey(parseId(filename, mark)))
+                    return;
+            }
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to remove " + file + ": ", e);
+        }
+    }
+
+    /**
+     * Read the index file once through a read-only mapping. A record torn by a killed run is cut off,
+     * so that appending continues from the last whole record.
+     */
+    private Map<Long, String> load() throws IOException {
+        if (names != null)
+            return names;
+
+        var loaded = new HashMap<Long, String>();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            if (size < Integer.BYTES) {
+                // Killed before the header was written, the header is written again on add
+                in.truncate(0);
+                names = loaded;
+                return names;
+            }
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mapped.getInt() != MAGIC)
+                throw new IOException("Bad magic");
+
+            var bytes = new byte[MAX_FILENAME_LENGTH * 4];
+            while (mapped.remaining() >= Long.BYTES + Short.BYTES) {
+                int start = mapped.position();
+                long id = mapped.getLong();
+                int length = Short.toUnsignedInt(mapped.getShort());
+                if (length > mapped.remaining() || length > bytes.length) {
+                    mapped.position(start);
+                    break;
+                }
+                mapped.get(bytes, 0, length);
+                var name = NameCodec.decode(new String(bytes, 0, length, US_ASCII), 0, length);
+                if (name != null)
+                    loaded.put(id, name);
+                else
+                    HiderLog.w(TAG, "Skipped malformed record in " + file);
+            }
+
+            if (mapped.position() < size) {
+                HiderLog.w(TAG, "Found torn record at the end of " + file);
+                in.truncate(mapped.position());
+            }
+        } catch (NoSuchFileException e) {
+            // No entry of the directory has been given a short name yet.
+        }
+
+        names = loaded;
+        return names;
+    }
+
+    /**
+     * FNV-1a over the chars of the name. The ids of a directory are checked for collisions on add.
+     */
+    private static long getId(String filename) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < filename.length(); i++) {
+            hash ^= filename.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Nullable
+    private static Long parseId(String shortName, FileHiderUtil.Mark mark) {
+        int start = mark.getPayloadStart() + 1;
+        int end = mark.getPayloadEnd(shortName);
+        if (end - start != ID_LENGTH)
+            return null;
+        try {
+            return Long.parseUnsignedLong(shortName.substring(start, end), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String formatId(long id) {
+        return String.format("%016x", id);
+    }
+}
@@ -0,0 +1,1208 @@
+package deltazero.amarok.filehider;
+
+import static deltazero.amarok.filehider.ProcessMethod.HIDE;
+import static deltazero.amarok.filehider.ProcessMethod.UNHIDE;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import deltazero.amarok.utils.ContentSniffer;
+import deltazero.amarok.utils.FileHiderUtil;
+import deltazero.amarok.utils.HashUtil;
+import deltazero.amarok.utils.HiderLog;
+
+/**
+ * Obfuscates file trees in place: filenames are encoded, and file headers, whole text files or strided blocks
+ * of large files are inverted.
+ * <p>
+ * Free of Android dependencies, so that it can be run and benchmarked on any JVM. The Android side,
+ * {@link ObfuscateFileHider}, supplies the settings and persists what must survive between runs.
+ */
+public class ObfuscateEngine {
+    private final static String TAG = "FileHider";
+
+    private final static int MAX_PROCESS_WHOLE_FILE_SIZE_KB = 10 * 1024; // In KB.
+    private final static int MAX_PROCESS_ENHANCED_WHOLE_FILE_SIZE_KB = 30 * 1024;
+    private final static int HEADER_SIZE = 8;
+    /**
+     * Files that may be inverted whole from this size on are processed on the content lane.
+     */
+    private final static long CONTENT_LANE_MIN_SIZE = 256 * 1024;
+    private final static String JOURNAL_FILENAME = "obfuscate_filehider.journal";
+    private final static String MANIFEST_DIRNAME = "obfuscate_manifests";
+    private final static String THROUGHPUT_FILENAME = "obfuscate_throughput";
+    private final static String NOMEDIA_DIRNAME = "obfuscate_nomedia";
+
+    public final static String FILENAME_NO_PROCESS_MARK = "!amk";
+    public final static String FILENAME_FULL_PROCESS_MARK = "!amk1";
+    public final static String FILENAME_HEADER_PROCESS_MARK = "!amk2";
+    /**
+     * Followed by the layout, see {@link StridedLayout#toMark()}.
+     */
+    public final static String FILENAME_STRIDED_PROCESS_MARK = "!amk3";
+
+    /**
+     * Obfuscate every file and folder in the targets.
+     */
+    public final static int HIDE_DEPTH_UNLIMITED = -1;
+    /**
+     * Only rename the target folders themselves and add a .nomedia to them, leaving their content untouched.
+     */
+    public final static int HIDE_DEPTH_TARGET_ONLY = 0;
+
+    public boolean processHeader;
+    public boolean processTextFile;
+    public boolean processTextFileEnhanced;
+    /**
+     * Layout of the blocks inverted in files too large to be inverted whole, instead of their header only.
+     * Null to only invert their header.
+     */
+    @Nullable
+    public StridedLayout stridedLayout;
+    /**
+     * How symbolic links in the trees are treated. Links visited themselves are only renamed, their
+     * targets are never opened. Unhide must use the policy of the last hide.
+     */
+    public ParallelFileWalker.LinkPolicy linkPolicy = ParallelFileWalker.LinkPolicy.NOFOLLOW;
+
+    private final File stateDir;
+    private HideJournal journal;
+    private Set<Path> roots = Set.of();
+    /**
+     * The roots, and the folders leading from a root to another root inside it. They are walked,
+     * but keep their names, so that the inner root stays where its own walk expects it.
+     */
+    private Set<Path> keptDirs = Set.of();
+    private final Map<Path, HideManifest> manifests = new HashMap<>();
+    /**
+     * Files of each root left out of the manifest at unhide, see {@link #recordUnclassified(Path)}.
+     */
+    private final Map<Path, Set<String>> unclassifiedFiles = new HashMap<>();
+    private final Map<Path, String> decodedDirs = new ConcurrentHashMap<>();
+    private final Map<Path, NameTable> nameTables = new ConcurrentHashMap<>();
+    /**
+     * Files whose content has been transformed by this run, to transform hardlinked content only once.
+     */
+    private FileKeySet transformedFiles;
+    private ChangeSet changes = new ChangeSet();
+    /**
+     * Workers of the walk and of its content lane. Package-private, so that tests can run the engine deterministically.
+     */
+    int numWorkers = Runtime.getRuntime().availableProcessors();
+    int numContentWorkers = Math.max(numWorkers / 2, 1);
+    private ProgressTracker.Listener progressListener = progress -> {
+    };
+    private ProgressTracker progress;
+    private final LongAdder wholeBytes = new LongAdder(), wholeNanos = new LongAdder();
+    private final LongAdder numFailures = new LongAdder();
+    private Collection<Path> volumeRoots = List.of();
+    private Map<Path, TargetRules> targetRules = Map.of();
+
+    // Head buffers fit both sniffing and the header transform
+    private final BufferPool headBuffers = new BufferPool(Math.max(ContentSniffer.SNIFF_SIZE, HEADER_SIZE),
+            2 * Runtime.getRuntime().availableProcessors());
+    private final BufferPool streamBuffers = new BufferPool(ContentTransformer.STREAM_BUFFER_SIZE,
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * @param stateDir Private directory to keep the journal and manifests in.
+     */
+    public ObfuscateEngine(File stateDir) {
+        this.stateDir = stateDir;
+    }
+
+    /**
+     * Receive the progress of the following runs. Reports are throttled to {@link ProgressTracker#REPORT_INTERVAL_MS}.
+     */
+    public void setProgressListener(ProgressTracker.Listener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * @return Paths changed by the last run, or the one in progress.
+     */
+    public ChangeSet getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return Number of entries the last run failed on, which may be left with an encoded name or a pending transform.
+     */
+    public long getNumFailures() {
+        return numFailures.sum();
+    }
+
+    /**
+     * Set the mount points of the storage volumes, each of which gets its own adaptive concurrency limit.
+     */
+    public void setVolumeRoots(Collection<Path> volumeRoots) {
+        this.volumeRoots = volumeRoots;
+    }
+
+    /**
+     * Set the include and exclude rules of the targets. Only hiding applies them, unhide restores
+     * every entry with an encoded name.
+     */
+    public void setTargetRules(Map<Path, TargetRules> targetRules) {
+        this.targetRules = targetRules;
+    }
+
+    /**
+     * Hide or unhide the file trees.
+     *
+     * @param roots    Target folders.
+     * @param depth    Number of folder levels below the targets to be processed,
+     *                 or {@link #HIDE_DEPTH_UNLIMITED} / {@link #HIDE_DEPTH_TARGET_ONLY}.
+     *                 Unhide must use the depth of the last hide.
+     * @param settings Fingerprint of the settings the marks are chosen with, see {@link #getSettingsFingerprint()}.
+     *                 Unhide must use the fingerprint of the last hide.
+     */
+    public void process(Set<Path> roots, ProcessMethod method, int depth, int settings) throws InterruptedException {
+        process(roots, method, depth, settings, null);
+    }
+
+    /**
+     * Hide or unhide the file trees, reusing the directory listings of a plan made right before.
+     *
+     * @param plan Plan made by {@link #plan} with the same arguments, or null to walk the trees without one.
+     * @see #process(Set, ProcessMethod, int, int)
+     */
+    public void process(Set<Path> roots, ProcessMethod method, int depth, int settings, @Nullable HidePlan plan)
+            throws InterruptedException {
+
+        // Recover from a run that was killed halfway
+        journal = openJournal(new File(stateDir, JOURNAL_FILENAME));
+        var recovery = journal.recover();
+        Set<Path> finishedDirs = Set.of();
+        if (recovery != null) {
+            HiderLog.w(TAG, String.format("Found unfinished %s run, %d pending content transforms",
+                    recovery.method, recovery.pendingTransforms.size()));
+            if (recovery.method == method)
+                finishedDirs = recovery.finishedDirs;
+        }
+
+        this.roots = roots;
+        keptDirs = getKeptDirs(roots);
+        loadManifests(roots, method, settings);
+        transformedFiles = new FileKeySet();
+        changes = new ChangeSet();
+        numFailures.reset();
+        progress = new ProgressTracker(progressListener);
+        if (plan != null)
+            progress.addTotal(plan.getNumEntries(), plan.totalBytes);
+
+        journal.begin(method, recovery != null && recovery.method == method);
+        boolean finished = false;
+        try {
+            if (recovery != null)
+                rollForward(recovery.pendingTransforms);
+            if (method == UNHIDE)
+                restoreTargets(roots);
+            // Unhide removes the .nomedia of an earlier hide whatever the depth is
+            if (method == UNHIDE || depth != HIDE_DEPTH_UNLIMITED)
+                processNoMedia(roots, method);
+
+            if (depth == HIDE_DEPTH_TARGET_ONLY) {
+                if (plan == null)
+                    progress.addTotal(roots.size(), 0);
+                if (method == HIDE)
+                    hideTargets(roots);
+            } else {
+                processTrees(roots, method, depth, finishedDirs, plan);
+            }
+            finished = true;
+            progress.finish();
+        } finally {
+            // Name tables outside the walked trees, i.e. in the parents of the targets
+            for (var dir : nameTables.keySet())
+                closeNameTable(dir, method);
+            journal.close(finished);
+        }
+
+        if (method == UNHIDE)
+            saveManifests();
+    }
+
+    /**
+     * Size the hide or unhide of the file trees without changing anything, reading attributes only.
+     *
+     * @param keepListings Whether to keep the directory listings in the plan, for it to be executed right after.
+     *                     They take memory in proportion to the number of entries.
+     * @see #process(Set, ProcessMethod, int, int, HidePlan)
+     */
+    public HidePlan plan(Set<Path> roots, ProcessMethod method, int depth, int settings, boolean keepListings)
+            throws InterruptedException {
+
+        var model = ThroughputModel.load(new File(stateDir, THROUGHPUT_FILENAME));
+        if (depth == HIDE_DEPTH_TARGET_ONLY)
+            return new HidePlan(0, roots.size(), 0, 0, 0, 0, 0,
+                    model.predictMillis(roots.size(), 0), null);
+
+        if (method == HIDE)
+            loadManifests(roots, HIDE, settings);
+        else
+            manifests.clear();
+
+        var numFiles = new LongAdder();
+        var numDirs = new LongAdder();
+        var totalBytes = new LongAdder();
+        var numWholeFiles = new LongAdder();
+        var numHeaderFiles = new LongAdder();
+        var plannedWholeBytes = new LongAdder();
+        var listings = keepListings ? new ParallelFileWalker.Listings() : null;
+
+        int maxDepth = (depth == HIDE_DEPTH_UNLIMITED) ? Integer.MAX_VALUE : depth;
+        var walker = new ParallelFileWalker();
+        walker.setLinkPolicy(linkPolicy);
+        walker.walk(roots, maxDepth, new ParallelFileWalker.Visitor() {
+
+            @Override
+            public boolean preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return method != HIDE || !isExcluded(dir, attrs);
+            }
+
+            @Override
+            public void visitFile(Path path, BasicFileAttributes attrs) {
+                if (attrs.isDirectory()) {
+                    numDirs.increment();
+                    return;
+                }
+                numFiles.increment();
+                if (!attrs.isRegularFile())
+                    return;
+                totalBytes.add(attrs.size());
+                switch (predictTransform(path, attrs, method)) {
+                    case WHOLE -> {
+                        numWholeFiles.increment();
+                        plannedWholeBytes.add(attrs.size());
+                    }
+                    case HEADER, STRIDED -> numHeaderFiles.increment();
+                }
+            }
+
+            @Override
+            public void postVisitDirectory(Path dir) {
+                if (!roots.contains(dir))
+                    numDirs.increment();
+            }
+
+        }, listings);
+
+        if (listings != null)
+            listings.seal();
+
+        long files = numFiles.sum(), whole = numWholeFiles.sum(), header = numHeaderFiles.sum();
+        var plan = new HidePlan(files, numDirs.sum(), totalBytes.sum(), whole, header, files - whole - header,
+                plannedWholeBytes.sum(), model.predictMillis(files + numDirs.sum(), plannedWholeBytes.sum()), listings);
+        HiderLog.i(TAG, String.format("Planned %s of %s: %s", method, roots, plan));
+        return plan;
+    }
+
+    /**
+     * Predict the content transform of a file from its name, attributes and the manifest, without opening it.
+     */
+    private Transform predictTransform(Path path, BasicFileAttributes attrs, ProcessMethod method) {
+        String filename = path.getFileName().toString();
+        var mark = FileHiderUtil.matchMark(filename);
+        if (method == UNHIDE)
+            return getMarkedTransform(mark);
+
+        if (mark != FileHiderUtil.Mark.NONE || filename.equals(".nomedia") || filename.equals(NameTable.FILENAME)
+                || !processHeader || isExcluded(path, attrs))
+            return Transform.NONE;
+        var knownTransform = getKnownTransform(path, attrs);
+        if (knownTransform != null)
+            return knownTransform;
+        if (processTextFile && FileHiderUtil.checkIsTextFile(filename) && isWithinWholeFileLimit(attrs.size()))
+            return Transform.WHOLE;
+        return getLargeFileTransform(attrs.size());
+    }
+
+    /**
+     * Whether the file may get a whole-file or strided transform long enough to hold up the renames around it.
+     * Header transforms take the same time for any file size.
+     */
+    private boolean isLargeContentWork(Path path, BasicFileAttributes attrs, ProcessMethod method) {
+        if (!attrs.isRegularFile() || attrs.size() < CONTENT_LANE_MIN_SIZE)
+            return false;
+        var transform = predictTransform(path, attrs, method);
+        // Unless known from the manifest, the enhanced mode may still sniff the file as text.
+        if (transform == Transform.HEADER && processTextFile && processTextFileEnhanced
+                && getKnownTransform(path, attrs) == null)
+            return isWithinWholeFileLimit(attrs.size());
+        return transform == Transform.WHOLE || transform == Transform.STRIDED;
+    }
+
+    /**
+     * Rename the target folders themselves. Their content, and the paths stored in the preferences,
+     * are left untouched, and {@link #restoreTargets(Set)} finds them again by their encoded name.
+     */
+    private void hideTargets(Set<Path> targetDirs) {
+        for (var dir : targetDirs) {
+            if (Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS))
+                processFilename(dir, HIDE, FILENAME_NO_PROCESS_MARK, ChangeSet.Kind.TREE);
+            progress.addDone(1, 0);
+        }
+    }
+
+    /**
+     * Rename the target folders hidden by {@link #hideTargets(Set)} back.
+     */
+    private void restoreTargets(Set<Path> targetDirs) {
+        for (var dir : targetDirs) {
+            if (Files.exists(dir, LinkOption.NOFOLLOW_LINKS))
+                continue;
+            var hiddenDir = getProcessedPath(dir, HIDE, FILENAME_NO_PROCESS_MARK);
+            if (hiddenDir != null && Files.isDirectory(hiddenDir, LinkOption.NOFOLLOW_LINKS)) {
+                HiderLog.i(TAG, "Restore hidden target: " + hiddenDir);
+                rename(hiddenDir, dir, ChangeSet.Kind.TREE);
+                // Have the name table of the parent removed once unused
+                if (FileHiderUtil.isNameTableId(hiddenDir.getFileName().toString()))
+                    nameTables.computeIfAbsent(dir.getParent(), NameTable::new);
+            }
+        }
+    }
+
+    /**
+     * Add or remove the .nomedia in the target folders, since files below the hide depth keep their names.
+     * The .nomedia added are recorded in the state directory, so that unhide only removes those.
+     */
+    private void processNoMedia(Set<Path> targetDirs, ProcessMethod method) {
+        for (var dir : targetDirs) {
+            var nomediaFile = dir.resolve(".nomedia").toFile();
+            var recordFile = getNoMediaRecordFile(dir);
+            try {
+                if (method == HIDE) {
+                    if (nomediaFile.createNewFile()) {
+                        // Recorded after it is created, so that a kill in between can only leave a .nomedia behind
+                        var parent = recordFile.getParentFile();
+                        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+                            throw new IOException("Failed to create " + parent);
+                        if (!recordFile.isFile() && !recordFile.createNewFile())
+                            throw new IOException("Failed to create " + recordFile);
+                        changes.addRescan(dir);
+                    } else if (!recordFile.isFile()) {
+                        HiderLog.w(TAG, String.format(".nomedia already exist: %s", dir));
+                    }
+                } else if (recordFile.exists()) {
+                    if (nomediaFile.isFile() && !nomediaFile.delete()) {
+                        HiderLog.w(TAG, String.format("Failed to remove .nomedia: %s", dir));
+                        continue;
+                    }
+                    changes.addRescan(dir);
+                    if (!recordFile.delete())
+                        HiderLog.w(TAG, "Failed to remove record of .nomedia: " + dir);
+                }
+            } catch (IOException | SecurityException e) {
+                HiderLog.w(TAG, String.format("Error while processing .nomedia in %s: ", dir), e);
+            }
+        }
+    }
+
+    /**
+     * Open the journal of a run. Package-private, so that tests can simulate the process being killed.
+     */
+    HideJournal openJournal(File file) {
+        return new HideJournal(file);
+    }
+
+    /**
+     * @param depth        Number of folder levels below the targets to be processed, or {@link #HIDE_DEPTH_UNLIMITED}.
+     *                     Folders at the last level are renamed, but not descended into.
+     * @param finishedDirs Directories finished by an interrupted run, to be skipped entirely.
+     */
+    private void processTrees(Set<Path> targetDirs, ProcessMethod method, int depth, Set<Path> finishedDirs,
+                              @Nullable HidePlan plan) throws InterruptedException {
+
+        HiderLog.i(TAG, String.format("Start to process file trees with depth %d: %s", depth, targetDirs));
+
+        long startNanos = System.nanoTime();
+        int maxDepth = (depth == HIDE_DEPTH_UNLIMITED) ? Integer.MAX_VALUE : depth;
+        var walker = new ParallelFileWalker(numWorkers, numContentWorkers);
+        walker.setLinkPolicy(linkPolicy);
+        // The content lane is bounded by its own workers, so only the walk workers share the volume limits
+        var governor = new VolumeGovernor(volumeRoots, walker.getParallelism());
+        boolean hasContentLane = walker.getContentParallelism() > 0;
+        walker.walk(targetDirs, maxDepth, new ParallelFileWalker.Visitor() {
+
+            @Override
+            public boolean preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (finishedDirs.contains(dir)) {
+                    HiderLog.d(TAG, "Skip directory finished by the interrupted run: " + dir);
+                    return false;
+                }
+                // Pruned before listing, so that nothing below it is read
+                if (method == HIDE && isExcluded(dir, attrs)) {
+                    HiderLog.d(TAG, "Skip directory excluded by the rules: " + dir);
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public void onDirectoryListed(Path dir, int numEntries, long numBytes) {
+                if (plan == null)
+                    progress.addTotal(numEntries, numBytes);
+            }
+
+            @Override
+            public boolean isContentWork(Path path, BasicFileAttributes attrs) {
+                return isLargeContentWork(path, attrs, method);
+            }
+
+            @Override
+            public void visitFile(Path path, BasicFileAttributes attrs) {
+                boolean contentWork = isContentWork(path, attrs);
+                // A large transform would hold a slot of its volume for long, throttling the cheap entries on it
+                if (contentWork && hasContentLane) {
+                    processFile(path, attrs, method);
+                    progress.addDone(1, attrs.size());
+                    return;
+                }
+
+                var limiter = governor.forPath(path);
+                if (!acquire(limiter))
+                    return;
+                long startNanos = System.nanoTime();
+                try {
+                    processFile(path, attrs, method);
+                } finally {
+                    // The time of large content transforms grows with the size, which tells nothing about congestion.
+                    limiter.release(contentWork ? -1 : System.nanoTime() - startNanos);
+                }
+                progress.addDone(1, attrs.isRegularFile() ? attrs.size() : 0);
+            }
+
+            @Override
+            public void postVisitDirectory(Path dir) {
+                closeNameTable(dir, method);
+                if (keptDirs.contains(dir))
+                    return;
+                var limiter = governor.forPath(dir);
+                if (!acquire(limiter))
+                    return;
+                long startNanos = System.nanoTime();
+                Path newDir;
+                try {
+                    newDir = processFilename(dir, method, FILENAME_NO_PROCESS_MARK, ChangeSet.Kind.DIRECTORY);
+                } finally {
+                    limiter.release(System.nanoTime() - startNanos);
+                }
+                journal.logDirectoryDone(newDir != null ? newDir : dir);
+                progress.addDone(1, 0);
+            }
+
+            /**
+             * @return False if interrupted by the cancellation of the walk.
+             */
+            private boolean acquire(VolumeGovernor.Limiter limiter) {
+                try {
+                    limiter.acquire();
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+        }, plan != null ? plan.listings : null);
+
+        numFailures.add(walker.getNumFailures());
+        HiderLog.i(TAG, String.format("Buffers allocated: %d of %d head, %d of %d stream",
+                headBuffers.getNumAllocated(), headBuffers.getNumAcquired(),
+                streamBuffers.getNumAllocated(), streamBuffers.getNumAcquired()));
+
+        if (!walker.isCancelled()) {
+            var modelFile = new File(stateDir, THROUGHPUT_FILENAME);
+            var model = ThroughputModel.load(modelFile);
+            model.update(progress.getEntriesDone(), wholeBytes.sum(),
+                    System.nanoTime() - startNanos, wholeNanos.sum(), walker.getContentParallelism());
+            model.save(modelFile);
+        }
+    }
+
+    /**
+     * Process a single file: choose its content transform, rename it and transform its content.
+     * <p>
+     * The file is opened at most once, before renaming, and the leading bytes read for sniffing
+     * are reused by the header transform. Size and lastModified time are taken from the attributes
+     * supplied by the walker, and the timestamp is restored with a single call.
+     */
+    private void processFile(Path path, BasicFileAttributes attrs, ProcessMethod method) {
+        String filename = path.getFileName().toString();
+
+        // Skip .nomedia
+        if (filename.equals(".nomedia"))
+            return;
+
+        // Skip the name table, and have it removed once unused even if no name is looked up in it
+        if (filename.equals(NameTable.FILENAME)) {
+            if (method == UNHIDE)
+                nameTables.computeIfAbsent(path.getParent(), NameTable::new);
+            return;
+        }
+
+        if (method == HIDE && isExcluded(path, attrs)) {
+            HiderLog.d(TAG, "Skip entry excluded by the rules: " + path);
+            return;
+        }
+
+        // Skip files that are already processed before opening them
+        var mark = FileHiderUtil.matchMark(filename);
+        boolean hasEncoded = mark != FileHiderUtil.Mark.NONE;
+        if (method == HIDE && hasEncoded) {
+            HiderLog.d(TAG, "Found encoded name: " + filename + ", skip...");
+            return;
+        } else if (method == UNHIDE && !hasEncoded) {
+            HiderLog.w(TAG, "Found not coded name: " + filename + ", skip...");
+            return;
+        }
+
+        // Folders at the hide depth are only renamed
+        if (attrs.isDirectory()) {
+            if (keptDirs.contains(path))
+                return;
+            processFilename(path, method, FILENAME_NO_PROCESS_MARK, ChangeSet.Kind.TREE);
+            return;
+        }
+
+        // Only open the file if its content may be transformed. Links, devices and pipes are only renamed on hide,
+        // while the mark is trusted on unhide.
+        boolean mayTransform = (method == HIDE)
+                ? processHeader && attrs.isRegularFile()
+                : getMarkedTransform(mark) != Transform.NONE;
+        // Reuse the mark of an unchanged file recorded at the last unhide. One left as it is is not opened either.
+        Transform knownTransform = (method == HIDE && mayTransform) ? getKnownTransform(path, attrs) : null;
+        if (!mayTransform || knownTransform == Transform.NONE) {
+            Path newPath = processFilename(path, method, Transform.NONE.mark, ChangeSet.Kind.FILE);
+            if (method == UNHIDE && newPath != null)
+                recordManifestEntry(newPath, attrs, Transform.NONE.mark);
+            return;
+        }
+
+        Path newPath = null;
+        Transform transform = Transform.NONE;
+        String transformMark = Transform.NONE.mark;
+        boolean claimed = false, duplicate = false;
+        ByteBuffer head = headBuffers.acquire();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            // Read enough for both sniffing and the header transform.
+            boolean shouldSniff = method == HIDE && processTextFileEnhanced && knownTransform == null;
+            head.limit(shouldSniff ? ContentSniffer.SNIFF_SIZE : HEADER_SIZE);
+            channel.read(head, 0);
+            head.flip();
+
+            if (method == UNHIDE)
+                transform = getMarkedTransform(mark);
+            else if (knownTransform != null)
+                transform = knownTransform;
+            else
+                transform = chooseTransform(path, attrs, head);
+
+            // Hardlinks share their content, so only the first name met carries the transform.
+            // Unhide follows the marks, which put it on a single name.
+            if (method == HIDE && transform != Transform.NONE) {
+                claimed = transformedFiles.add(attrs.fileKey());
+                if (!claimed) {
+                    HiderLog.i(TAG, "Content already transformed through another link: " + path);
+                    transform = Transform.NONE;
+                    duplicate = true;
+                }
+            }
+
+            // A strided mark carries its layout. Restore with the one of the name, whatever the settings are.
+            StridedLayout layout = null;
+            transformMark = transform.mark;
+            if (transform == Transform.STRIDED) {
+                layout = (method == HIDE) ? stridedLayout : StridedLayout.fromMark(filename);
+                if (layout == null) {
+                    HiderLog.w(TAG, "Unable to read the strided layout of " + filename + ", skip...");
+                    numFailures.increment();
+                    return;
+                }
+                transformMark = layout.toMark();
+            }
+
+            Path processedPath = getProcessedPath(path, method, transformMark);
+            if (processedPath == null)
+                return;
+
+            // Log the transform before renaming, so that a marked name is never left
+            // without a journal record of its content state.
+            if (transform != Transform.NONE) {
+                int headLimit = head.limit();
+                head.limit(Math.min(headLimit, HEADER_SIZE));
+                journal.logTransform(processedPath, transformMark, attrs.lastModifiedTime().toMillis(), head);
+                head.limit(headLimit);
+            }
+
+            // Rename first, a renamed file is still accessible through the opened channel.
+            if (!rename(path, processedPath, ChangeSet.Kind.FILE))
+                return;
+            newPath = processedPath;
+
+            if (transform == Transform.WHOLE) {
+                HiderLog.d(TAG, "Processing whole file: " + newPath);
+                // The attributes may come from a plan made a moment ago, so take the size of what is opened.
+                long size = channel.size();
+                long startNanos = System.nanoTime();
+                long done = ContentTransformer.invertWhole(channel, 0, size, streamBuffers, getCheckpointer(newPath));
+                wholeNanos.add(System.nanoTime() - startNanos);
+                wholeBytes.add(done);
+                if (done < size) {
+                    // Cancelled. The transform stays pending in the journal, and is finished by the next run.
+                    HiderLog.i(TAG, String.format("Whole-file transform cancelled at %d of %d bytes: %s", done, size, newPath));
+                    return;
+                }
+            } else if (transform == Transform.STRIDED) {
+                HiderLog.d(TAG, "Processing strided blocks: " + newPath);
+                long size = channel.size();
+                long done = ContentTransformer.invertStrided(channel, 0, size, layout, streamBuffers, getCheckpointer(newPath));
+                if (done < size) {
+                    HiderLog.i(TAG, String.format("Strided transform cancelled at %d of %d bytes: %s", done, size, newPath));
+                    return;
+                }
+            } else if (transform == Transform.HEADER) {
+                HiderLog.d(TAG, "Processing file header: " + newPath);
+                head.limit(Math.min(head.limit(), HEADER_SIZE));
+                InversionKernel.invert(head, 0, head.limit());
+                channel.write(head, 0);
+            }
+
+        } catch (IOException e) {
+            if (newPath == null) {
+                // Renaming an encoded file back would show its content still transformed, so leave it to the
+                // next unhide. Same when cancelled, as the channel is closed by the interrupt.
+                if (method == UNHIDE || e instanceof ClosedByInterruptException) {
+                    HiderLog.w(TAG, String.format("Failed to read %s, leave it as it is: %s", path, e));
+                    numFailures.increment();
+                    return;
+                }
+                // Failed to open the file. Still hide its name, but mark its content as untouched.
+                HiderLog.w(TAG, String.format("Failed to open %s, skip content processing: %s", path, e));
+                numFailures.increment();
+                if (processFilename(path, method, Transform.NONE.mark, ChangeSet.Kind.FILE) != null)
+                    recordUnclassified(path);
+                return;
+            }
+            // Possibly halfway through the content, e.g. interrupted in the middle of a chunk.
+            // The transform stays pending in the journal.
+            HiderLog.w(TAG, "processFile failed: ", e);
+            numFailures.increment();
+            return;
+        } finally {
+            headBuffers.release(head);
+            // Not renamed, so another link may still carry the transform
+            if (claimed && newPath == null)
+                transformedFiles.remove(attrs.fileKey());
+        }
+
+        // Preserve original lastModified time
+        if (newPath != null && transform != Transform.NONE) {
+            try {
+                Files.setLastModifiedTime(newPath, attrs.lastModifiedTime());
+            } catch (IOException | SecurityException e) {
+                HiderLog.w(TAG, "Failed to restore lastModified: ", e);
+            }
+            journal.logTransformDone(newPath);
+        }
+
+        if (duplicate && newPath != null)
+            recordUnclassified(path);
+        if (method == UNHIDE && newPath != null)
+            recordManifestEntry(newPath, attrs, transformMark);
+    }
+
+    /**
+     * @return Whether the entry is left as it is by the rules of its target.
+     */
+    private boolean isExcluded(Path path, BasicFileAttributes attrs) {
+        var root = getRoot(path);
+        var rules = root != null ? targetRules.get(root) : null;
+        return rules != null && !path.equals(root) && !rules.accepts(root.relativize(path), attrs);
+    }
+
+    /**
+     * @return The transform recorded for the unchanged file by the manifest of the last unhide, or null.
+     */
+    @Nullable
+    private Transform getKnownTransform(Path path, BasicFileAttributes attrs) {
+        var root = getRoot(path);
+        var manifest = root != null ? manifests.get(root) : null;
+        if (manifest == null)
+            return null;
+        var mark = manifest.getMark(root.relativize(path).toString(),
+                attrs.size(), attrs.lastModifiedTime().toMillis());
+        if (mark == null)
+            return null;
+        var transform = Transform.fromMark(mark);
+        // Strided marks are only reused with the same layout
+        if (transform == Transform.STRIDED && (stridedLayout == null || !stridedLayout.toMark().equals(mark)))
+            return null;
+        return transform;
+    }
+
+    /**
+     * Fingerprint of the settings that decide the content transform of a file.
+     */
+    public int getSettingsFingerprint() {
+        int fingerprint = (processHeader ? 1 : 0) | (processTextFile ? 2 : 0) | (processTextFileEnhanced ? 4 : 0);
+        if (stridedLayout != null)
+            fingerprint |= (stridedLayout.blockKB() * 31 + stridedLayout.strideKB()) << 3;
+        return fingerprint;
+    }
+
+    private File getManifestFile(Path root) {
+        return new File(new File(stateDir, MANIFEST_DIRNAME),
+                HashUtil.calculateHash(root.toString()) + ".manifest");
+    }
+
+    private File getNoMediaRecordFile(Path root) {
+        return new File(new File(stateDir, NOMEDIA_DIRNAME), HashUtil.calculateHash(root.toString()));
+    }
+
+    private void loadManifests(Set<Path> roots, ProcessMethod method, int settings) {
+        manifests.clear();
+        if (method == HIDE) {
+            for (var root : roots) {
+                var manifest = HideManifest.load(getManifestFile(root), settings);
+                if (manifest != null) {
+                    HiderLog.i(TAG, String.format("Loaded manifest of %s: %d entries", root, manifest.size()));
+                    manifests.put(root, manifest);
+                }
+            }
+        } else {
+            // Marks met during unhide were chosen with the settings of the last hide.
+            unclassifiedFiles.clear();
+            for (var root : roots) {
+                manifests.put(root, new HideManifest(settings));
+                unclassifiedFiles.put(root, loadUnclassified(getUnclassifiedFile(root)));
+            }
+        }
+    }
+
+    private void saveManifests() {
+        for (var e : manifests.entrySet()) {
+            e.getValue().save(getManifestFile(e.getKey()));
+            // Otherwise still needed by the next unhide, for the files left hidden by this one
+            if (numFailures.sum() == 0)
+                // noinspection ResultOfMethodCallIgnored
+                getUnclassifiedFile(e.getKey()).delete();
+        }
+    }
+
+    /**
+     * Remember a file hidden with the mark of untouched content without its content deciding it,
+     * e.g. because it could not be opened or its content was transformed through another hardlink.
+     * The next unhide leaves it out of the manifest, so that the hide after classifies it again.
+     * <p>
+     * Appended right away, as such files are few, and kept until an unhide restores all of them.
+     */
+    private synchronized void recordUnclassified(Path path) {
+        var root = getRoot(path);
+        if (root == null)
+            return;
+        var file = getUnclassifiedFile(root);
+        // noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        try (var out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeUTF(root.relativize(path).toString());
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to record unclassified file " + path + ": ", e);
+        }
+    }
+
+    /**
+     * @return The relative paths in the file, up to a record torn by a killed run.
+     */
+    private static Set<String> loadUnclassified(File file) {
+        var paths = new HashSet<String>();
+        if (!file.isFile())
+            return paths;
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true)
+                paths.add(in.readUTF());
+        } catch (EOFException e) {
+            // End of the records
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to load unclassified files " + file + ": ", e);
+        }
+        return paths;
+    }
+
+    private File getUnclassifiedFile(Path root) {
+        return new File(new File(stateDir, MANIFEST_DIRNAME),
+                HashUtil.calculateHash(root.toString()) + ".unclassified");
+    }
+
+    /**
+     * Record a file restored by unhide in the manifest of its target.
+     *
+     * @param newPath Path of the file after decoding its name. Its parent directories may still be encoded.
+     */
+    private void recordManifestEntry(Path newPath, BasicFileAttributes attrs, String mark) {
+        var root = getRoot(newPath);
+        if (root == null)
+            return;
+        var manifest = manifests.get(root);
+        var relativeParent = getDecodedRelativePath(root, newPath.getParent());
+        if (manifest == null || relativeParent == null)
+            return;
+
+        var relativePath = relativeParent.isEmpty()
+                ? newPath.getFileName().toString()
+                : relativeParent + File.separator + newPath.getFileName();
+        var unclassified = unclassifiedFiles.get(root);
+        if (unclassified != null && unclassified.contains(relativePath))
+            return;
+        manifest.put(relativePath, attrs.size(), attrs.lastModifiedTime().toMillis(), mark);
+    }
+
+    /**
+     * Get the path of an encoded directory relative to its target, as it will be after unhiding.
+     *
+     * @return The decoded relative path, "" for the root, or null if a name cannot be decoded.
+     */
+    @Nullable
+    private String getDecodedRelativePath(Path root, Path dir) {
+        if (dir.equals(root))
+            return "";
+
+        var cached = decodedDirs.get(dir);
+        if (cached != null)
+            return cached;
+
+        var parent = getDecodedRelativePath(root, dir.getParent());
+        if (parent == null)
+            return null;
+
+        var name = dir.getFileName().toString();
+        var mark = FileHiderUtil.matchMark(name);
+        if (mark != FileHiderUtil.Mark.NONE) {
+            name = decodeFilename(dir, name, mark);
+            if (name == null)
+                return null;
+        }
+
+        var decoded = parent.isEmpty() ? name : parent + File.separator + name;
+        decodedDirs.put(dir, decoded);
+        return decoded;
+    }
+
+    /**
+     * @return The innermost root containing the path, which is the one walking it, or null.
+     */
+    @Nullable
+    private Path getRoot(Path path) {
+        Path innermost = null;
+        for (var root : roots) {
+            if (path.startsWith(root) && (innermost == null || root.getNameCount() > innermost.getNameCount()))
+                innermost = root;
+        }
+        return innermost;
+    }
+
+    private static Set<Path> getKeptDirs(Set<Path> roots) {
+        var keptDirs = new HashSet<>(roots);
+        for (var root : roots) {
+            var canonical = Paths.get(TargetIndex.canonicalize(root.toString()));
+            for (var inner : roots) {
+                var innerCanonical = Paths.get(TargetIndex.canonicalize(inner.toString()));
+                if (innerCanonical.equals(canonical) || !innerCanonical.startsWith(canonical))
+                    continue;
+                // As reached by the walk of the outer root, which may go through an alias of the inner one
+                var relative = canonical.relativize(innerCanonical);
+                for (int i = 1; i <= relative.getNameCount(); i++)
+                    keptDirs.add(root.resolve(relative.subpath(0, i)));
+            }
+        }
+        return keptDirs;
+    }
+
+    /**
+     * Finish content transforms left by a killed or cancelled run, so that every filename mark matches its content.
+     * <p>
+     * A whole-file or strided transform resumes from its last checkpoint. Otherwise, whether a transform has started
+     * is told by the original leading bytes in the journal. A header transform is a single write, so it has
+     * either fully happened or not at all.
+     * <p>
+     * The transforms are logged again to the new journal first, so that a run interrupted while
+     * recovering is recovered from as well.
+     */
+    private void rollForward(List<HideJournal.PendingTransform> pendingTransforms) throws InterruptedException {
+        for (var pending : pendingTransforms) {
+            var transform = Transform.fromMark(pending.mark);
+            var original = pending.originalHead;
+            var layout = (transform == Transform.STRIDED) ? StridedLayout.fromMark(pending.mark) : null;
+            boolean chunked = transform == Transform.WHOLE || transform == Transform.STRIDED;
+            if (transform == Transform.STRIDED && layout == null) {
+                HiderLog.w(TAG, "Unable to read the strided layout of " + pending.path + ", content left as is");
+                journal.logTransformDone(pending.path);
+                continue;
+            }
+
+            journal.logTransform(pending.path, pending.mark, pending.lastModified, ByteBuffer.wrap(original));
+            if (pending.chunkOffset >= 0)
+                journal.logChunk(pending.path, pending.chunkOffset, pending.chunkLength, pending.chunkPageCrcs);
+
+            try (FileChannel channel = FileChannel.open(pending.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+                var head = ByteBuffer.allocate(original.length);
+                channel.read(head, 0);
+                head.flip();
+
+                long size = channel.size();
+                long from = -1;
+                if (chunked && pending.chunkOffset >= 0) {
+                    HiderLog.i(TAG, String.format("Resume interrupted content transform at %d of %d bytes: %s",
+                            pending.chunkOffset, size, pending.path));
+                    if (!ContentTransformer.resolveChunk(channel, pending.chunkOffset, pending.chunkLength, pending.chunkPageCrcs))
+                        HiderLog.w(TAG, "Failed to resolve the interrupted chunk, content may be partially inverted: " + pending.path);
+                    from = pending.chunkOffset + (layout != null ? layout.getStrideSize() : pending.chunkLength);
+                } else if (head.equals(ByteBuffer.wrap(original))) {
+                    HiderLog.i(TAG, "Redo interrupted content transform: " + pending.path);
+                    if (chunked) {
+                        from = 0;
+                    } else if (transform == Transform.HEADER) {
+                        InversionKernel.invert(head, 0, head.limit());
+                        channel.write(head, 0);
+                    }
+                } else if (chunked) {
+                    HiderLog.w(TAG, "Content transform was interrupted, content may be partially inverted: " + pending.path);
+                }
+
+                var checkpointer = getCheckpointer(pending.path);
+                if (from >= 0 && (layout != null
+                        ? ContentTransformer.invertStrided(channel, from, size, layout, streamBuffers, checkpointer)
+                        : ContentTransformer.invertWhole(channel, from, size, streamBuffers, checkpointer)) < size) {
+                    // Cancelled again, the transform stays pending
+                    Thread.interrupted();
+                    throw new InterruptedException();
+                }
+
+            } catch (NoSuchFileException e) {
+                // Killed before renaming, the file is untouched.
+                journal.logTransformDone(pending.path);
+                continue;
+            } catch (IOException e) {
+                HiderLog.w(TAG, "Failed to recover content transform of " + pending.path + ": ", e);
+                numFailures.increment();
+                continue;
+            }
+
+            try {
+                Files.setLastModifiedTime(pending.path, FileTime.fromMillis(pending.lastModified));
+            } catch (IOException | SecurityException e) {
+                HiderLog.w(TAG, "Failed to restore lastModified: ", e);
+            }
+            journal.logTransformDone(pending.path);
+        }
+    }
+
+    private ContentTransformer.Checkpointer getCheckpointer(Path path) {
+        return (offset, length, pageCrcs) -> journal.logChunk(path, offset, length, pageCrcs);
+    }
+
+    /**
+     * Process the Filename and check if the process succeeds.
+     *
+     * @param path            The path to be processed.
+     * @param method          Process method.
+     * @param extraEndingMark (only effective when `HIDE`) Extra mark to be append to the end of the filename.
+     * @param kind            What the rename moves, as recorded in the {@link ChangeSet}.
+     * @return If the process succeeds, return the new path. Otherwise, return null.
+     */
+    @Nullable
+    private Path processFilename(Path path, ProcessMethod method, String extraEndingMark, ChangeSet.Kind kind) {
+        Path newPath = getProcessedPath(path, method, extraEndingMark);
+        if (newPath == null || !rename(path, newPath, kind))
+            return null;
+        return newPath;
+    }
+
+    /**
+     * Get the path after processing the filename, without renaming.
+     *
+     * @return The new path, or null if the filename should not or cannot be processed.
+     */
+    @Nullable
+    private Path getProcessedPath(Path path, ProcessMethod method, String extraEndingMark) {
+        String filename = path.getFileName().toString();
+        String newFilename = null;
+
+        var mark = FileHiderUtil.matchMark(filename);
+        boolean hasEncoded = mark != FileHiderUtil.Mark.NONE;
+
+        if (method == HIDE) {
+            if (hasEncoded) {
+                HiderLog.d(TAG, "Found encoded name: " + filename + ", skip...");
+                return null;
+            }
+
+            newFilename = NameCodec.encode(filename, extraEndingMark);
+            // Base64 grows names by a third, keep the original name in the name table if it no longer fits
+            if (newFilename.length() > NameTable.MAX_FILENAME_LENGTH)
+                newFilename = NameTable.getShortName(filename, extraEndingMark);
+            HiderLog.d(TAG, "Encode: " + path + " -> " + newFilename);
+
+        } else if (method == UNHIDE) {
+            if (!hasEncoded) {
+                HiderLog.w(TAG, "Found not coded name: " + filename + ", skip...");
+                return null;
+            }
+
+            newFilename = decodeFilename(path, filename, mark);
+            if (newFilename == null) {
+                HiderLog.w(TAG, "Unable to decode: " + filename);
+                numFailures.increment();
+                return null;
+            }
+
+            HiderLog.d(TAG, "Decode: " + path + " -> " + newFilename);
+        }
+
+        assert newFilename != null;
+        // Resolved against the parent as it is, rather than re-parsing its string form
+        return path.resolveSibling(newFilename);
+    }
+
+    /**
+     * @return The original name of an encoded entry, or null if it is malformed or missing from the name table.
+     */
+    @Nullable
+    private String decodeFilename(Path path, String filename, FileHiderUtil.Mark mark) {
+        if (FileHiderUtil.isNameTableId(filename))
+            return nameTables.computeIfAbsent(path.getParent(), NameTable::new).lookup(filename, mark);
+        return NameCodec.decode(filename, mark);
+    }
+
+    /**
+     * Flush the name table of a directory whose entries are all processed. After unhiding, it is removed once unused.
+     */
+    private void closeNameTable(Path dir, ProcessMethod method) {
+        var table = nameTables.remove(dir);
+        if (table != null)
+            table.close(method == UNHIDE);
+    }
+
+    private boolean rename(Path path, Path newPath, ChangeSet.Kind kind) {
+        // Record the original name before the rename that drops it
+        var newFilename = newPath.getFileName().toString();
+        if (FileHiderUtil.matchMark(newFilename) != FileHiderUtil.Mark.NONE && FileHiderUtil.isNameTableId(newFilename)
+                && !nameTables.computeIfAbsent(path.getParent(), NameTable::new).add(path.getFileName().toString())) {
+            numFailures.increment();
+            return false;
+        }
+
+        boolean is_succeeded = path.toFile().renameTo(newPath.toFile());
+
+        if (!is_succeeded) {
+            HiderLog.w(TAG, "Error when renaming file: " + path + " -> " + newPath);
+            numFailures.increment();
+            return false;
+        } else {
+            changes.addRename(path, newPath, kind);
+            return true;
+        }
+    }
+
+    private Transform chooseTransform(Path path, BasicFileAttributes attrs, ByteBuffer head) {
+
+        if (!processHeader)
+            return Transform.NONE;
+
+        if (processTextFile) {
+            boolean shouldProcessWhole;
+            if (processTextFileEnhanced) {
+                shouldProcessWhole = FileHiderUtil.checkIsTextFileEnhanced(path, head, attrs.size());
+            } else { // Not enhanced
+                shouldProcessWhole = FileHiderUtil.checkIsTextFile(path.getFileName().toString());
+            }
+            if (shouldProcessWhole && isWithinWholeFileLimit(attrs.size()))
+                return Transform.WHOLE;
+        }
+
+        return getLargeFileTransform(attrs.size());
+    }
+
+    /**
+     * @return The transform of a file not inverted whole: strided blocks if it is large enough, its header otherwise.
+     */
+    private Transform getLargeFileTransform(long size) {
+        return stridedLayout != null && size >= stridedLayout.getMinFileSize() ? Transform.STRIDED : Transform.HEADER;
+    }
+
+    private boolean isWithinWholeFileLimit(long size) {
+        long sizeKB = size / 1024;
+        return processTextFileEnhanced
+                ? sizeKB <= MAX_PROCESS_WHOLE_FILE_SIZE_KB
+                : sizeKB <= MAX_PROCESS_ENHANCED_WHOLE_FILE_SIZE_KB;
+    }
+
+    /**
+     * Get the transform recorded in the ending mark of an encoded filename.
+     * Unlike hiding, this does not depend on current settings, so that files hidden
+     * with other settings can always be restored.
+     */
+    private static Transform getMarkedTransform(FileHiderUtil.Mark mark) {
+        return switch (mark) {
+            case FULL_PROCESS -> Transform.WHOLE;
+            case HEADER_PROCESS -> Transform.HEADER;
+            case STRIDED_PROCESS -> Transform.STRIDED;
+            default -> Transform.NONE;
+        };
+    }
+
+    private enum Transform {
+        NONE(FILENAME_NO_PROCESS_MARK),
+        HEADER(FILENAME_HEADER_PROCESS_MARK),
+        WHOLE(FILENAME_FULL_PROCESS_MARK),
+        /**
+         * Marked with its layout, of which this is the prefix.
+         */
+        STRIDED(FILENAME_STRIDED_PROCESS_MARK);
+
+        final String mark;
+
+        Transform(String mark) {
+            this.mark = mark;
+        }
+
+        static Transform fromMark(String mark) {
+            for (var transform : values()) {
+                if (transform.mark.equals(mark))
+                    return transform;
+            }
+            return mark.startsWith(STRIDED.mark) ? STRIDED : NONE;
+        }
+    }
+}
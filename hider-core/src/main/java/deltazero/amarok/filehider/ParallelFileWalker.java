@@ -0,0 +1,559 @@
+package deltazero.amarok.filehider;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import deltazero.amarok.utils.HiderLog;
+
+/**
+ * Walks several file trees at once on a work-stealing {@link ForkJoinPool}.
+ * <p>
+ * Every directory is listed by its own task. Sub-directories and large batches of files are forked,
+ * so idle workers can steal them. Like {@link Files#walkFileTree}, {@link Visitor#postVisitDirectory(Path)}
+ * is only invoked after every entry below the directory has been visited. Directories at the maximum depth
+ * are passed to {@link Visitor#visitFile} instead of being descended into.
+ * <p>
+ * Symbolic links are handled by the {@link LinkPolicy}, not followed by default. Every directory is
+ * descended into once per walk, identified by its file key, so that roots reaching the same directory
+ * through different mount points, or followed links, are not walked twice and cannot loop. A root inside
+ * another one is only walked from itself.
+ * <p>
+ * Optionally, files the visitor marks as {@link Visitor#isContentWork content work} are handed to a
+ * separate lane with its own workers, so that a few slow files do not hold up the cheap entries around
+ * them. Their directory still waits for them before {@link Visitor#postVisitDirectory(Path)}.
+ */
+public class ParallelFileWalker {
+
+    private static final String TAG = "ParallelFileWalker";
+
+    /**
+     * Directories with more files than this are split into several batches.
+     */
+    private static final int FILE_BATCH_SIZE = 64;
+
+    private final int parallelism, contentParallelism;
+    private LinkPolicy linkPolicy = LinkPolicy.NOFOLLOW;
+    private volatile boolean cancelled = false;
+    private final LongAdder numFailures = new LongAdder();
+    private ExecutorService contentLane;
+    private FileKeySet visitedDirs;
+    /**
+     * Real paths of the walk roots, which followed links must lead into.
+     */
+    private List<Path> realRoots;
+
+    /**
+     * What to do with the symbolic links met in the trees.
+     */
+    public enum LinkPolicy {
+        /**
+         * Visit the link itself, as a file that is neither regular nor a directory.
+         */
+        NOFOLLOW,
+        /**
+         * Visit what the link points to, descending into linked directories, if it lies within one of the
+         * walk roots. Links leading out of the roots, and dangling links, are visited as with {@link #NOFOLLOW}.
+         */
+        FOLLOW,
+        /**
+         * Leave links out of the walk.
+         */
+        SKIP
+    }
+
+    public interface Visitor {
+        /**
+         * Invoked for every directory below the walk roots before its entries are listed.
+         *
+         * @return False to skip the directory and its whole subtree.
+         */
+        default boolean preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            return true;
+        }
+
+        /**
+         * Invoked for every non-directory entry, and for directories at the maximum depth.
+         * May be called concurrently from several workers.
+         */
+        void visitFile(Path file, BasicFileAttributes attrs);
+
+        /**
+         * Only asked if the walker has a content lane.
+         *
+         * @return True to visit the file on the content lane.
+         */
+        default boolean isContentWork(Path file, BasicFileAttributes attrs) {
+            return false;
+        }
+
+        /**
+         * Invoked once a directory has been listed, before its files are visited.
+         *
+         * @param numEntries Number of entries to be visited directly in the directory, including
+         *                   the sub-directories to be descended into.
+         * @param numBytes   Total size of the regular files among them.
+         */
+        default void onDirectoryListed(Path dir, int numEntries, long numBytes) {
+        }
+
+        /**
+         * Invoked once all entries in the directory have been visited, including the walk roots.
+         * May be called concurrently from several workers.
+         */
+        void postVisitDirectory(Path dir);
+    }
+
+    /**
+     * Directory listings recorded by one walk, to be replayed by a later walk over the same trees
+     * instead of listing and reading the attributes of every entry again.
+     * <p>
+     * A listing is only replayed if the lastModified time of its directory is unchanged, which is
+     * the case as long as no entry has been added, removed or renamed in it. As FAT and exFAT keep
+     * that time in 2 s steps, a change right after listing may keep it, so directories modified
+     * within {@link #MODIFIED_GRANULARITY_MS} before being listed are not recorded.
+     */
+    public static final class Listings {
+
+        /**
+         * Coarsest lastModified resolution of the supported filesystems, that of FAT and exFAT.
+         */
+        public static final long MODIFIED_GRANULARITY_MS = 2000;
+
+        private record Listing(FileTime dirModified, List<Path> entries, List<BasicFileAttributes> entryAttrs) {
+        }
+
+        private final ConcurrentHashMap<Path, Listing> listings = new ConcurrentHashMap<>();
+        private volatile boolean recording = true;
+
+        /**
+         * Stop recording, so that directories listed again by the replaying walk are not kept.
+         */
+        public void seal() {
+            recording = false;
+        }
+
+        public int size() {
+            return listings.size();
+        }
+
+        /**
+         * @param listedAt Time the directory was about to be listed at, in milliseconds since the epoch.
+         */
+        void record(Path dir, @Nullable FileTime dirModified, long listedAt,
+                    List<Path> entries, List<BasicFileAttributes> entryAttrs) {
+            if (recording && dirModified != null && dirModified.toMillis() < listedAt - MODIFIED_GRANULARITY_MS)
+                listings.put(dir, new Listing(dirModified, entries, entryAttrs));
+        }
+
+        /**
+         * Remove the listing of the directory.
+         *
+         * @return Null if the directory was not recorded or has changed since.
+         */
+        @Nullable
+        Listing take(Path dir) {
+            var listing = listings.remove(dir);
+            if (listing == null)
+                return null;
+            try {
+                var attrs = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                return attrs.lastModifiedTime().equals(listing.dirModified) ? listing : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    public ParallelFileWalker() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelFileWalker(int parallelism) {
+        this(parallelism, 0);
+    }
+
+    /**
+     * @param contentParallelism Number of workers of the content lane, or 0 to visit every file on the walking workers.
+     */
+    public ParallelFileWalker(int parallelism, int contentParallelism) {
+        this.parallelism = Math.max(parallelism, 1);
+        this.contentParallelism = Math.max(contentParallelism, 0);
+    }
+
+    public void setLinkPolicy(LinkPolicy linkPolicy) {
+        this.linkPolicy = linkPolicy;
+    }
+
+    /**
+     * Walk all roots in parallel and block until every tree has been visited.
+     *
+     * @param roots   Roots of the file trees to be walked.
+     * @param visitor Visitor to be invoked on the entries.
+     * @throws InterruptedException If the calling thread is interrupted. Workers stop picking up new entries
+     *                              as soon as possible, but the entry being processed is always finished.
+     * @throws RuntimeException     Thrown by the visitor, once the other workers have stopped.
+     */
+    public void walk(Collection<Path> roots, Visitor visitor) throws InterruptedException {
+        walk(roots, Integer.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Walk all roots in parallel, at most {@code maxDepth} levels below each root.
+     *
+     * @param maxDepth Maximum number of directory levels to visit. Must be at least 1, which only visits
+     *                 the entries directly in the roots.
+     * @see #walk(Collection, Visitor)
+     */
+    public void walk(Collection<Path> roots, int maxDepth, Visitor visitor) throws InterruptedException {
+        walk(roots, maxDepth, visitor, null);
+    }
+
+    /**
+     * Walk all roots in parallel, recording the directory listings, or replaying those recorded before.
+     *
+     * @param listings Directories found in it are replayed, others are listed and recorded unless sealed.
+     * @see #walk(Collection, int, Visitor)
+     */
+    public void walk(Collection<Path> roots, int maxDepth, Visitor visitor, @Nullable Listings listings)
+            throws InterruptedException {
+        cancelled = false;
+        numFailures.reset();
+        visitedDirs = new FileKeySet();
+        realRoots = linkPolicy == LinkPolicy.FOLLOW ? getRealPaths(roots) : List.of();
+
+        var pool = new ForkJoinPool(parallelism);
+        contentLane = contentParallelism > 0 ? Executors.newFixedThreadPool(contentParallelism) : null;
+        var rootTask = new RootTask(roots, maxDepth, visitor, listings);
+
+        try {
+            pool.execute(rootTask);
+            rootTask.get();
+        } catch (InterruptedException e) {
+            stopWorkers(pool);
+            throw e;
+        } catch (ExecutionException e) {
+            // Like walkFileTree, a visitor failing ends the walk with its exception
+            HiderLog.w(TAG, "File walk failed: ", e.getCause());
+            stopWorkers(pool);
+            if (e.getCause() instanceof Error error)
+                throw error;
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+            if (contentLane != null)
+                contentLane.shutdown();
+        }
+    }
+
+    /**
+     * Cancel the walk and wait for the in-flight entries, so that no rename happens after it returns.
+     */
+    private void stopWorkers(ForkJoinPool pool) throws InterruptedException {
+        cancelled = true;
+        pool.shutdownNow();
+        if (contentLane != null)
+            contentLane.shutdownNow();
+        // noinspection ResultOfMethodCallIgnored
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        if (contentLane != null)
+            // noinspection ResultOfMethodCallIgnored
+            contentLane.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getContentParallelism() {
+        return contentParallelism;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return Number of directories the last walk failed to list, and of entries it failed to read the attributes of.
+     */
+    public long getNumFailures() {
+        return numFailures.sum();
+    }
+
+    @SuppressWarnings("serial") // Never serialized
+    private final class RootTask extends CountedCompleter<Void> {
+
+        private final Collection<Path> roots;
+        private final int maxDepth;
+        private final Visitor visitor;
+        private final Listings listings;
+
+        RootTask(Collection<Path> roots, int maxDepth, Visitor visitor, @Nullable Listings listings) {
+            this.roots = roots;
+            this.maxDepth = maxDepth;
+            this.visitor = visitor;
+            this.listings = listings;
+        }
+
+        @Override
+        public void compute() {
+            // Claim every root before walking any, so that a root inside another one is left to its own walk
+            var claimed = new ArrayList<Path>(roots.size());
+            for (var root : roots) {
+                if (claimDirectory(root))
+                    claimed.add(root);
+                else
+                    HiderLog.w(TAG, "Skip root reached through another root: " + root);
+            }
+            for (var root : claimed) {
+                addToPendingCount(1);
+                new DirTask(this, root, maxDepth, visitor, listings).fork();
+            }
+            tryComplete();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class DirTask extends CountedCompleter<Void> {
+
+        private final Path dir;
+        /**
+         * Number of directory levels that may still be visited below this directory.
+         */
+        private final int remainingDepth;
+        private final Visitor visitor;
+        private final Listings listings;
+
+        DirTask(CountedCompleter<?> parent, Path dir, int remainingDepth, Visitor visitor, @Nullable Listings listings) {
+            super(parent);
+            this.dir = dir;
+            this.remainingDepth = remainingDepth;
+            this.visitor = visitor;
+            this.listings = listings;
+        }
+
+        @Override
+        public void compute() {
+            if (cancelled) {
+                // Do not complete, so that no parent directory is renamed after cancellation.
+                return;
+            }
+
+            var files = new ArrayList<Path>();
+            var fileAttrs = new ArrayList<BasicFileAttributes>();
+            int numSubDirs = 0;
+            long numBytes = 0;
+
+            // List the whole directory first, since the visitor will rename entries in it.
+            var listing = listings != null ? listings.take(dir) : null;
+            List<Path> entries;
+            List<BasicFileAttributes> entryAttrs;
+            if (listing != null) {
+                entries = listing.entries();
+                entryAttrs = listing.entryAttrs();
+            } else {
+                entries = new ArrayList<>();
+                entryAttrs = new ArrayList<>();
+                long listedAt = System.currentTimeMillis();
+                var dirModified = list(dir, entries, entryAttrs);
+                if (listings != null)
+                    listings.record(dir, dirModified, listedAt, entries, entryAttrs);
+            }
+
+            for (int i = 0; i < entries.size(); i++) {
+                var entry = entries.get(i);
+                var attrs = entryAttrs.get(i);
+                if (attrs.isDirectory() && remainingDepth > 1) {
+                    if (!visitedDirs.add(attrs.fileKey())) {
+                        HiderLog.d(TAG, "Skip directory reached through another path: " + entry);
+                        continue;
+                    }
+                    if (!visitor.preVisitDirectory(entry, attrs))
+                        continue;
+                    addToPendingCount(1);
+                    new DirTask(this, entry, remainingDepth - 1, visitor, listings).fork();
+                    numSubDirs++;
+                } else {
+                    files.add(entry);
+                    fileAttrs.add(attrs);
+                    if (attrs.isRegularFile())
+                        numBytes += attrs.size();
+                }
+            }
+
+            visitor.onDirectoryListed(dir, files.size() + numSubDirs, numBytes);
+
+            // Keep the first batch for this worker, and let the others be stolen.
+            int firstBatchEnd = Math.min(files.size(), FILE_BATCH_SIZE);
+            for (int start = firstBatchEnd; start < files.size(); start += FILE_BATCH_SIZE) {
+                addToPendingCount(1);
+                new FileBatchTask(this, files, fileAttrs, start,
+                        Math.min(start + FILE_BATCH_SIZE, files.size()), visitor).fork();
+            }
+            visitFiles(this, files, fileAttrs, 0, firstBatchEnd, visitor);
+
+            tryComplete();
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            if (!cancelled)
+                visitor.postVisitDirectory(dir);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class FileBatchTask extends CountedCompleter<Void> {
+
+        private final List<Path> files;
+        private final List<BasicFileAttributes> fileAttrs;
+        private final int start, end;
+        private final Visitor visitor;
+
+        FileBatchTask(CountedCompleter<?> parent, List<Path> files, List<BasicFileAttributes> fileAttrs,
+                      int start, int end, Visitor visitor) {
+            super(parent);
+            this.files = files;
+            this.fileAttrs = fileAttrs;
+            this.start = start;
+            this.end = end;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void compute() {
+            visitFiles(this, files, fileAttrs, start, end, visitor);
+            if (!cancelled)
+                tryComplete();
+        }
+    }
+
+    /**
+     * @return False if the directory has already been claimed in this walk.
+     */
+    private boolean claimDirectory(Path dir) {
+        try {
+            return visitedDirs.add(Files.readAttributes(dir, BasicFileAttributes.class).fileKey());
+        } catch (IOException e) {
+            // Listing will fail and log it
+            return true;
+        }
+    }
+
+    /**
+     * List the entries of the directory with their attributes, according to the link policy.
+     *
+     * @return The lastModified time of the directory read before listing, or null if unknown.
+     */
+    @Nullable
+    private FileTime list(Path dir, List<Path> entries, List<BasicFileAttributes> entryAttrs) {
+        FileTime dirModified = null;
+        try {
+            dirModified = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+                    .lastModifiedTime();
+        } catch (IOException e) {
+            HiderLog.w(TAG, String.format("Failed to read attributes of %s: %s", dir, e));
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (var entry : stream) {
+                try {
+                    var attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isSymbolicLink()) {
+                        if (linkPolicy == LinkPolicy.SKIP)
+                            continue;
+                        if (linkPolicy == LinkPolicy.FOLLOW)
+                            attrs = readTargetAttributes(entry, attrs);
+                    }
+                    entryAttrs.add(attrs);
+                    entries.add(entry);
+                } catch (IOException e) {
+                    HiderLog.w(TAG, String.format("Failed to read attributes of %s: %s", entry, e));
+                    numFailures.increment();
+                }
+            }
+        } catch (IOException e) {
+            HiderLog.w(TAG, String.format("While listing '%s': %s", dir, e));
+            numFailures.increment();
+            return null;
+        }
+        return dirModified;
+    }
+
+    /**
+     * @return Attributes of what the link points to, or of the link itself if it leads out of the walk roots.
+     */
+    private BasicFileAttributes readTargetAttributes(Path link, BasicFileAttributes linkAttrs) {
+        try {
+            var target = link.toRealPath();
+            for (var root : realRoots) {
+                if (target.startsWith(root))
+                    return Files.readAttributes(target, BasicFileAttributes.class);
+            }
+            HiderLog.d(TAG, String.format("Link %s leads out of the walked trees, to %s", link, target));
+            return linkAttrs;
+        } catch (IOException e) {
+            HiderLog.d(TAG, String.format("Dangling link %s: %s", link, e));
+            return linkAttrs;
+        }
+    }
+
+    private static List<Path> getRealPaths(Collection<Path> roots) {
+        var realPaths = new ArrayList<Path>(roots.size());
+        for (var root : roots) {
+            try {
+                realPaths.add(root.toRealPath());
+            } catch (IOException e) {
+                // Listing will fail and log it
+            }
+        }
+        return realPaths;
+    }
+
+    /**
+     * @param task Task visiting the files. Files handed to the content lane are added to its pending count.
+     */
+    private void visitFiles(CountedCompleter<?> task, List<Path> files, List<BasicFileAttributes> fileAttrs,
+                            int start, int end, Visitor visitor) {
+        for (int i = start; i < end; i++) {
+            if (cancelled)
+                return;
+            var file = files.get(i);
+            var attrs = fileAttrs.get(i);
+            if (contentLane != null && visitor.isContentWork(file, attrs)) {
+                task.addToPendingCount(1);
+                contentLane.execute(() -> {
+                    if (cancelled)
+                        return;
+                    try {
+                        visitor.visitFile(file, attrs);
+                    } catch (RuntimeException | Error e) {
+                        // Fail the walk like a throwing worker would, instead of leaving it pending
+                        task.completeExceptionally(e);
+                        return;
+                    }
+                    task.tryComplete();
+                });
+            } else {
+                visitor.visitFile(file, attrs);
+            }
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package deltazero.amarok.filehider;
+
+public enum ProcessMethod {
+    HIDE, UNHIDE
+}
@@ -0,0 +1,133 @@
+package deltazero.amarok.filehider;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the entries and bytes of a hide / unhide run, and reports the progress at a fixed maximum rate.
+ * <p>
+ * Totals grow while the trees are being walked, so the remaining amounts and the ETA only cover
+ * entries discovered so far. Counting is lock-free and safe to be called from any worker.
+ */
+public class ProgressTracker {
+
+    /**
+     * Minimum interval between two reports.
+     */
+    public static final long REPORT_INTERVAL_MS = 500;
+
+    /**
+     * Weight of the latest interval in the smoothed throughput.
+     */
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    public interface Listener {
+        /**
+         * Invoked at most every {@link #REPORT_INTERVAL_MS}, from a worker thread.
+         */
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * @param bytesPerSecond Smoothed recent throughput.
+     * @param etaMillis      Estimated time left, or -1 if unknown yet.
+     * @param finished       Whether this is the final report of the run.
+     */
+    public record Progress(long entriesDone, long entriesTotal, long bytesDone, long bytesTotal,
+                           double bytesPerSecond, double entriesPerSecond, long etaMillis, boolean finished) {
+
+        public long entriesRemaining() {
+            return Math.max(entriesTotal - entriesDone, 0);
+        }
+
+        public long bytesRemaining() {
+            return Math.max(bytesTotal - bytesDone, 0);
+        }
+
+        /**
+         * @return Processed fraction in [0, 1], by entries.
+         */
+        public double fraction() {
+            if (finished)
+                return 1;
+            return entriesTotal == 0 ? 0 : Math.min((double) entriesDone / entriesTotal, 1);
+        }
+    }
+
+    private final Listener listener;
+    private final LongAdder entriesDone = new LongAdder(), entriesTotal = new LongAdder();
+    private final LongAdder bytesDone = new LongAdder(), bytesTotal = new LongAdder();
+    private final AtomicLong nextReportTime;
+
+    // Guarded by `this`, only touched by the reporting thread
+    private long lastReportTime, lastEntriesDone, lastBytesDone;
+    private double bytesPerSecond = -1, entriesPerSecond = -1;
+
+    public ProgressTracker(Listener listener) {
+        this.listener = listener;
+        lastReportTime = System.currentTimeMillis();
+        nextReportTime = new AtomicLong(lastReportTime + REPORT_INTERVAL_MS);
+    }
+
+    public void addTotal(long numEntries, long numBytes) {
+        entriesTotal.add(numEntries);
+        bytesTotal.add(numBytes);
+    }
+
+    public void addDone(long numEntries, long numBytes) {
+        entriesDone.add(numEntries);
+        bytesDone.add(numBytes);
+
+        long now = System.currentTimeMillis();
+        long next = nextReportTime.get();
+        // Only the worker that wins the CAS reports
+        if (now >= next && nextReportTime.compareAndSet(next, now + REPORT_INTERVAL_MS))
+            report(now, false);
+    }
+
+    public long getEntriesDone() {
+        return entriesDone.sum();
+    }
+
+    /**
+     * Send the final report.
+     */
+    public void finish() {
+        report(System.currentTimeMillis(), true);
+    }
+
+    private synchronized void report(long now, boolean finished) {
+        long entries = entriesDone.sum(), bytes = bytesDone.sum();
+        long entriesTotal = Math.max(this.entriesTotal.sum(), entries);
+        long bytesTotal = Math.max(this.bytesTotal.sum(), bytes);
+
+        long interval = now - lastReportTime;
+        if (interval > 0) {
+            double currentBytesPerSecond = (bytes - lastBytesDone) * 1000.0 / interval;
+            double currentEntriesPerSecond = (entries - lastEntriesDone) * 1000.0 / interval;
+            bytesPerSecond = smooth(bytesPerSecond, currentBytesPerSecond);
+            entriesPerSecond = smooth(entriesPerSecond, currentEntriesPerSecond);
+        }
+        lastReportTime = now;
+        lastEntriesDone = entries;
+        lastBytesDone = bytes;
+
+        // Either the entry count or the byte count may dominate, e.g. renames vs. whole-file transforms.
+        long etaMillis = -1;
+        if (finished) {
+            etaMillis = 0;
+        } else if (entriesPerSecond > 0) {
+            double etaSeconds = (entriesTotal - entries) / entriesPerSecond;
+            if (bytesPerSecond > 0)
+                etaSeconds = Math.max(etaSeconds, (bytesTotal - bytes) / bytesPerSecond);
+            etaMillis = (long) (etaSeconds * 1000);
+        }
+
+        listener.onProgress(new Progress(entries, entriesTotal, bytes, bytesTotal,
+                Math.max(bytesPerSecond, 0), Math.max(entriesPerSecond, 0), etaMillis, finished));
+    }
+
+    private static double smooth(double average, double current) {
+        return average < 0 ? current : average + THROUGHPUT_SMOOTHING * (current - average);
+    }
+}
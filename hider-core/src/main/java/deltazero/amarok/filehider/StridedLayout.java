@@ -0,0 +1,62 @@
+package deltazero.amarok.filehider;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Layout of a strided transform: a block of {@code blockKB} is inverted at the start of every
+ * {@code strideKB}, from offset 0 to the end of the file.
+ * <p>
+ * It is recorded in the filename mark, {@code "!amk3_" + blockKB + "_" + strideKB}, so that a file
+ * can be restored whatever the current settings are.
+ */
+public record StridedLayout(int blockKB, int strideKB) {
+
+    /**
+     * Largest block, which fits the buffers the content is streamed through.
+     */
+    public static final int MAX_BLOCK_KB = ContentTransformer.STREAM_BUFFER_SIZE / 1024;
+
+    public StridedLayout {
+        if (blockKB < 1 || blockKB > MAX_BLOCK_KB || strideKB < blockKB)
+            throw new IllegalArgumentException(String.format("Bad strided layout: %d KB every %d KB", blockKB, strideKB));
+    }
+
+    /**
+     * @param mark A mark, or a filename ending with one.
+     * @return The layout recorded in a strided mark, or null if there is none or it is malformed.
+     */
+    @Nullable
+    public static StridedLayout fromMark(String mark) {
+        var prefix = ObfuscateEngine.FILENAME_STRIDED_PROCESS_MARK + "_";
+        int start = mark.lastIndexOf(prefix);
+        if (start < 0)
+            return null;
+        var fields = mark.substring(start + prefix.length()).split("_", -1);
+        if (fields.length != 2)
+            return null;
+        try {
+            return new StridedLayout(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public String toMark() {
+        return ObfuscateEngine.FILENAME_STRIDED_PROCESS_MARK + "_" + blockKB + "_" + strideKB;
+    }
+
+    public int getBlockSize() {
+        return blockKB * 1024;
+    }
+
+    public long getStrideSize() {
+        return strideKB * 1024L;
+    }
+
+    /**
+     * Files from this size on span more than one stride. Smaller files get a header transform instead.
+     */
+    public long getMinFileSize() {
+        return 2 * getStrideSize();
+    }
+}
@@ -0,0 +1,181 @@
+package deltazero.amarok.filehider;
+
+import androidx.annotation.Nullable;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trie of hide targets by path segment, answering overlap and containment queries in O(depth).
+ * <p>
+ * Targets are indexed by their canonical path, see {@link #canonicalize}, so that the aliases
+ * Android mounts the primary storage at are taken for the same directory. Queries return targets
+ * as they were added, which is how they are stored in the preferences.
+ */
+public class TargetIndex {
+
+    /**
+     * Canonical path of the primary storage of the current user.
+     */
+    public static final String PRIMARY_STORAGE = "/storage/emulated/0";
+
+    private static final String[] PRIMARY_STORAGE_ALIASES = {
+            "/sdcard", "/mnt/sdcard", "/storage/self/primary", "/mnt/user/0/primary"
+    };
+
+    private final Node root = new Node();
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        /**
+         * Target ending at this node as it was added, or null.
+         */
+        @Nullable
+        String target;
+        /**
+         * Number of targets at or below this node.
+         */
+        int numTargets;
+    }
+
+    public TargetIndex() {
+    }
+
+    public TargetIndex(Iterable<String> targets) {
+        for (var target : targets)
+            add(target);
+    }
+
+    /**
+     * @return The absolute, normalized path, with the aliases of the primary storage replaced by
+     * {@link #PRIMARY_STORAGE}.
+     * @throws InvalidPathException If the path cannot be parsed.
+     */
+    public static String canonicalize(String path) {
+        var canonical = Paths.get(path).toAbsolutePath().normalize().toString();
+        for (var alias : PRIMARY_STORAGE_ALIASES) {
+            if (canonical.equals(alias) || canonical.startsWith(alias + "/"))
+                return PRIMARY_STORAGE + canonical.substring(alias.length());
+        }
+        return canonical;
+    }
+
+    /**
+     * @return False if the target, or an alias of it, is already indexed.
+     * @throws InvalidPathException If the path cannot be parsed.
+     */
+    public boolean add(String target) {
+        var segments = split(target);
+        var node = root;
+        var path = new ArrayList<Node>(segments.size() + 1);
+        path.add(node);
+        for (var segment : segments) {
+            node = node.children.computeIfAbsent(segment, s -> new Node());
+            path.add(node);
+        }
+        if (node.target != null)
+            return false;
+
+        node.target = target;
+        for (var n : path)
+            n.numTargets++;
+        return true;
+    }
+
+    /**
+     * @return The indexed target containing or equal to the path, or null if there is none.
+     * The outermost one is returned if several are nested.
+     */
+    @Nullable
+    public String findContaining(String path) {
+        var node = root;
+        for (var segment : split(path)) {
+            node = node.children.get(segment);
+            if (node == null)
+                return null;
+            if (node.target != null)
+                return node.target;
+        }
+        return null;
+    }
+
+    /**
+     * @return An indexed target strictly inside the path, or null if there is none.
+     */
+    @Nullable
+    public String findContained(String path) {
+        var node = root;
+        for (var segment : split(path)) {
+            node = node.children.get(segment);
+            if (node == null)
+                return null;
+        }
+        if (node.numTargets == (node.target != null ? 1 : 0))
+            return null;
+
+        // Descend along any branch holding a target
+        for (var child = nextBranch(node); child != null; child = nextBranch(child)) {
+            if (child.target != null)
+                return child.target;
+        }
+        return null;
+    }
+
+    /**
+     * @return An indexed target that contains, equals or is inside the path, or null if they are disjoint.
+     */
+    @Nullable
+    public String findOverlap(String path) {
+        var containing = findContaining(path);
+        return containing != null ? containing : findContained(path);
+    }
+
+    /**
+     * @return The targets not inside another one, in no particular order. Hiding these covers all targets,
+     * and no file is reached twice.
+     */
+    public Set<String> getOutermost() {
+        var outermost = new LinkedHashSet<String>();
+        collectOutermost(root, outermost);
+        return outermost;
+    }
+
+    public int size() {
+        return root.numTargets;
+    }
+
+    private static void collectOutermost(Node node, Set<String> outermost) {
+        if (node.target != null) {
+            outermost.add(node.target);
+            return;
+        }
+        for (var child : node.children.values()) {
+            if (child.numTargets > 0)
+                collectOutermost(child, outermost);
+        }
+    }
+
+    @Nullable
+    private static Node nextBranch(Node node) {
+        for (var child : node.children.values()) {
+            if (child.numTargets > 0)
+                return child;
+        }
+        return null;
+    }
+
+    private static List<String> split(String path) {
+        Path canonical = Paths.get(canonicalize(path));
+        var segments = new ArrayList<String>(canonical.getNameCount());
+        for (var segment : canonical)
+            segments.add(segment.toString());
+        return segments;
+    }
+}
@@ -0,0 +1,168 @@
+package deltazero.amarok.filehider;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Include and exclude rules of a hide target, compiled once and matched against every entry below it.
+ * <p>
+ * One rule per line:
+ * <pre>
+ * exclude .thumbnails     Entries with this name, at any depth.
+ * exclude *.iso           Glob against the name, if the pattern has no '/'.
+ * exclude cache/*.tmp    Glob against the path relative to the target otherwise.
+ * exclude ext iso,zip     Files with one of these extensions, in any case.
+ * exclude size &gt; 2G       Files larger than this, in bytes or with a K, M or G suffix.
+ * include size &lt; 500M     Files smaller than this.
+ * </pre>
+ * An entry is hidden if it matches no exclude rule and, for files, any include rule if there is one.
+ * Directories are only matched by name and glob rules. Blank lines and lines starting with '#' are ignored.
+ * <p>
+ * Plain names are looked up in a hash set and extensions in another, so only glob rules cost a match each.
+ */
+public class TargetRules {
+
+    private final RuleSet excludes = new RuleSet(), includes = new RuleSet();
+
+    private static final class RuleSet {
+        final Set<String> names = new HashSet<>();
+        final Set<String> extensions = new HashSet<>();
+        final List<PathMatcher> nameGlobs = new ArrayList<>();
+        final List<PathMatcher> pathGlobs = new ArrayList<>();
+        long largerThan = Long.MAX_VALUE, smallerThan = Long.MIN_VALUE;
+
+        boolean isEmpty() {
+            return names.isEmpty() && extensions.isEmpty() && nameGlobs.isEmpty() && pathGlobs.isEmpty()
+                    && largerThan == Long.MAX_VALUE && smallerThan == Long.MIN_VALUE;
+        }
+
+        boolean matches(Path relativePath, BasicFileAttributes attrs) {
+            var name = relativePath.getFileName();
+            var filename = name.toString();
+            if (names.contains(filename))
+                return true;
+            for (var glob : nameGlobs) {
+                if (glob.matches(name))
+                    return true;
+            }
+            for (var glob : pathGlobs) {
+                if (glob.matches(relativePath))
+                    return true;
+            }
+            if (attrs.isDirectory())
+                return false;
+
+            if (attrs.size() > largerThan || attrs.size() < smallerThan)
+                return true;
+            int dot = filename.lastIndexOf('.');
+            return dot >= 0 && !extensions.isEmpty()
+                    && extensions.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private TargetRules() {
+    }
+
+    /**
+     * @param lines Rules, one per line, see {@link TargetRules}.
+     * @throws IllegalArgumentException If a rule is malformed, with the rule in the message.
+     */
+    public static TargetRules compile(Iterable<String> lines) {
+        var rules = new TargetRules();
+        for (var line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            int space = line.indexOf(' ');
+            var kind = space < 0 ? line : line.substring(0, space);
+            var set = switch (kind) {
+                case "exclude" -> rules.excludes;
+                case "include" -> rules.includes;
+                default -> throw new IllegalArgumentException("Unknown rule: " + line);
+            };
+            var rule = space < 0 ? "" : line.substring(space + 1).trim();
+            if (rule.isEmpty())
+                throw new IllegalArgumentException("Empty rule: " + line);
+
+            if (rule.startsWith("ext ")) {
+                for (var ext : rule.substring(4).split(",")) {
+                    ext = ext.trim();
+                    if (ext.startsWith("."))
+                        ext = ext.substring(1);
+                    if (!ext.isEmpty())
+                        set.extensions.add(ext.toLowerCase(Locale.ROOT));
+                }
+            } else if (rule.startsWith("size ")) {
+                var bound = rule.substring(5).trim();
+                if (bound.startsWith(">"))
+                    set.largerThan = Math.min(set.largerThan, parseSize(bound.substring(1), line));
+                else if (bound.startsWith("<"))
+                    set.smallerThan = Math.max(set.smallerThan, parseSize(bound.substring(1), line));
+                else
+                    throw new IllegalArgumentException("Size rule needs > or <: " + line);
+            } else if (rule.indexOf('/') >= 0) {
+                set.pathGlobs.add(FileSystems.getDefault().getPathMatcher("glob:" + rule));
+            } else if (isGlob(rule)) {
+                set.nameGlobs.add(FileSystems.getDefault().getPathMatcher("glob:" + rule));
+            } else {
+                set.names.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    public boolean isEmpty() {
+        return excludes.isEmpty() && includes.isEmpty();
+    }
+
+    /**
+     * @param relativePath Path of the entry relative to the target, not empty.
+     * @return Whether the entry is to be hidden. A directory that is not is skipped with its whole subtree.
+     */
+    public boolean accepts(Path relativePath, BasicFileAttributes attrs) {
+        if (excludes.matches(relativePath, attrs))
+            return false;
+        return attrs.isDirectory() || includes.isEmpty() || includes.matches(relativePath, attrs);
+    }
+
+    private static boolean isGlob(String rule) {
+        for (int i = 0; i < rule.length(); i++) {
+            if ("*?[{\\".indexOf(rule.charAt(i)) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static long parseSize(String size, String line) {
+        size = size.trim().toUpperCase(Locale.ROOT);
+        if (size.endsWith("B"))
+            size = size.substring(0, size.length() - 1);
+        int shift = 0;
+        if (!size.isEmpty()) {
+            shift = switch (size.charAt(size.length() - 1)) {
+                case 'K' -> 10;
+                case 'M' -> 20;
+                case 'G' -> 30;
+                default -> 0;
+            };
+        }
+        if (shift > 0)
+            size = size.substring(0, size.length() - 1).trim();
+        try {
+            long bytes = Long.parseLong(size);
+            if (bytes < 0 || bytes > Long.MAX_VALUE >> shift)
+                throw new IllegalArgumentException("Bad size: " + line);
+            return bytes << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad size: " + line, e);
+        }
+    }
+}
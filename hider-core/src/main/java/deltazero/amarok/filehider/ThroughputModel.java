@@ -0,0 +1,92 @@
+package deltazero.amarok.filehider;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import deltazero.amarok.utils.HiderLog;
+
+/**
+ * Time a run takes on this device, measured from the previous runs: a cost per entry, covering listing,
+ * renaming and header transforms, plus a cost per byte of whole-file transforms. Both are wall-clock
+ * times with all workers running.
+ */
+public class ThroughputModel {
+
+    private static final String TAG = "ThroughputModel";
+    private static final int MAGIC = 0x414D4B54; // "AMKT"
+
+    /**
+     * Conservative guesses until the first run is measured: a rename on emulated storage, and 100 MB/s.
+     */
+    private static final double DEFAULT_ENTRY_NANOS = 500_000;
+    private static final double DEFAULT_WHOLE_BYTE_NANOS = 10;
+
+    /**
+     * Runs shorter than this are dominated by fixed costs and are not measured.
+     */
+    private static final long MIN_MEASURED_ENTRIES = 100;
+    private static final double SMOOTHING = 0.5;
+
+    private double entryNanos = DEFAULT_ENTRY_NANOS;
+    private double wholeByteNanos = DEFAULT_WHOLE_BYTE_NANOS;
+
+    public static ThroughputModel load(File file) {
+        var model = new ThroughputModel();
+        if (!file.isFile())
+            return model;
+
+        try (var in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() == MAGIC) {
+                model.entryNanos = in.readDouble();
+                model.wholeByteNanos = in.readDouble();
+            }
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to load throughput model " + file + ": ", e);
+        }
+        return model;
+    }
+
+    public void save(File file) {
+        // noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        try (var out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeDouble(entryNanos);
+            out.writeDouble(wholeByteNanos);
+        } catch (IOException e) {
+            HiderLog.w(TAG, "Failed to save throughput model " + file + ": ", e);
+        }
+    }
+
+    /**
+     * Blend in the measurement of a finished run.
+     *
+     * @param elapsedNanos   Wall-clock time of the run.
+     * @param wholeNanos     Time spent in whole-file transforms, summed over all workers.
+     * @param numWorkers     Number of workers the run was spread over.
+     */
+    public void update(long numEntries, long wholeBytes, long elapsedNanos, long wholeNanos, int numWorkers) {
+        if (numEntries < MIN_MEASURED_ENTRIES)
+            return;
+
+        double wholeWallNanos = (double) wholeNanos / numWorkers;
+        if (wholeBytes > 0)
+            wholeByteNanos = blend(wholeByteNanos, wholeWallNanos / wholeBytes);
+        entryNanos = blend(entryNanos, Math.max(elapsedNanos - wholeWallNanos, 0) / numEntries);
+
+        HiderLog.i(TAG, String.format("Measured %.1f µs per entry, %.2f ns per transformed byte",
+                entryNanos / 1000, wholeByteNanos));
+    }
+
+    public long predictMillis(long numEntries, long wholeBytes) {
+        return (long) ((numEntries * entryNanos + wholeBytes * wholeByteNanos) / 1_000_000);
+    }
+
+    private static double blend(double average, double current) {
+        return average + SMOOTHING * (current - average);
+    }
+}
@@ -0,0 +1,156 @@
+package deltazero.amarok.filehider;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import deltazero.amarok.utils.HiderLog;
+
+/**
+ * Limits the number of concurrent file operations on each storage volume, adapting each limit
+ * to the latency observed on its volume.
+ * <p>
+ * Every limit starts at one, and grows by one per round of operations while latency stays near the best
+ * seen on the volume. It shrinks by a quarter as soon as latency climbs well above that (AIMD). A slow
+ * SD card therefore settles at a few operations in flight, while internal storage keeps all workers busy. Waiting workers
+ * are compensated by the {@link ForkJoinPool}, so a throttled volume never starves the others.
+ */
+public class VolumeGovernor {
+
+    private static final String TAG = "VolumeGovernor";
+
+    private record Volume(Path root, Limiter limiter) {
+    }
+
+    // Longest roots first, so that nested mount points match before their parents
+    private final List<Volume> volumes = new ArrayList<>();
+    private final Limiter defaultLimiter;
+
+    /**
+     * @param volumeRoots    Mount points of the storage volumes. Paths on none of them share one limit.
+     * @param maxConcurrency Upper bound of every limit.
+     */
+    public VolumeGovernor(Collection<Path> volumeRoots, int maxConcurrency) {
+        for (var root : volumeRoots)
+            volumes.add(new Volume(canonicalize(root), new Limiter(root.toString(), maxConcurrency)));
+        volumes.sort(Comparator.comparingInt((Volume v) -> v.root.getNameCount()).reversed());
+        defaultLimiter = new Limiter("other", maxConcurrency);
+    }
+
+    /**
+     * @param path A path on any of the mount points of a volume, e.g. /sdcard or /storage/emulated/0.
+     */
+    public Limiter forPath(Path path) {
+        var canonical = canonicalize(path);
+        for (var volume : volumes) {
+            if (canonical.startsWith(volume.root))
+                return volume.limiter;
+        }
+        return defaultLimiter;
+    }
+
+    private static Path canonicalize(Path path) {
+        return Paths.get(TargetIndex.canonicalize(path.toString()));
+    }
+
+    public static final class Limiter {
+
+        /**
+         * Latency above this multiple of the best round leads to a decrease.
+         */
+        private static final double CONGESTED_RATIO = 2.0;
+        /**
+         * The best round is slowly forgotten, so that a burst of cached operations does not pin the limit.
+         */
+        private static final double BEST_ROUND_DRIFT = 1.01;
+
+        private final String name;
+        private final int maxLimit;
+
+        // Guarded by `this`
+        private int limit, inFlight;
+        private int roundSamples;
+        private long roundNanos;
+        private double bestRoundNanos = Double.MAX_VALUE;
+
+        Limiter(String name, int maxLimit) {
+            this.name = name;
+            this.maxLimit = Math.max(maxLimit, 1);
+            // Start alone, so that the best round is measured without congestion
+            this.limit = 1;
+        }
+
+        /**
+         * Wait until an operation may start on the volume.
+         */
+        public void acquire() throws InterruptedException {
+            if (tryAcquire())
+                return;
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    synchronized (Limiter.this) {
+                        while (inFlight >= limit)
+                            Limiter.this.wait();
+                        inFlight++;
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return tryAcquire();
+                }
+            });
+        }
+
+        private synchronized boolean tryAcquire() {
+            if (inFlight >= limit)
+                return false;
+            inFlight++;
+            return true;
+        }
+
+        /**
+         * @param latencyNanos Duration of the finished operation, or -1 if it is not representative,
+         *                     e.g. its cost depends on the file size.
+         */
+        public synchronized void release(long latencyNanos) {
+            inFlight--;
+            if (latencyNanos >= 0) {
+                roundNanos += latencyNanos;
+                // A round is as many operations as may be in flight at once
+                if (++roundSamples >= limit)
+                    adapt();
+            }
+            notifyAll();
+        }
+
+        private void adapt() {
+            double meanNanos = (double) roundNanos / roundSamples;
+            roundNanos = 0;
+            roundSamples = 0;
+
+            bestRoundNanos = Math.min(bestRoundNanos * BEST_ROUND_DRIFT, meanNanos);
+            int newLimit;
+            if (meanNanos > bestRoundNanos * CONGESTED_RATIO)
+                newLimit = Math.max(limit * 3 / 4, 1);
+            else
+                newLimit = Math.min(limit + 1, maxLimit);
+
+            if (newLimit != limit) {
+                HiderLog.d(TAG, String.format("Limit of %s: %d -> %d (%.0f µs per operation)",
+                        name, limit, newLimit, meanNanos / 1000));
+                limit = newLimit;
+            }
+        }
+
+        public synchronized int getLimit() {
+            return limit;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package deltazero.amarok.utils;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Guess the content type of a file from its first bytes, without any I/O.
+ * <p>
+ * Binary formats are recognized by their magic numbers, looked up by the first byte.
+ * Anything else is classified by a single pass over a precomputed byte-class table,
+ * which validates UTF-8 and detects UTF-16 by its zero bytes.
+ */
+public final class ContentSniffer {
+
+    /**
+     * Number of leading bytes {@link #sniff(ByteBuffer)} looks at.
+     */
+    public static final int SNIFF_SIZE = 512;
+
+    public enum Type {
+        UNKNOWN, BINARY, TEXT, JSON, XML, HTML, LRC;
+
+        public boolean isText() {
+            return this != UNKNOWN && this != BINARY;
+        }
+    }
+
+    // Byte classes
+    private static final byte C_TEXT = 0;     // Printable ASCII & common whitespace
+    private static final byte C_CONTROL = 1;  // ASCII control characters, never in text
+    private static final byte C_CONT = 2;     // UTF-8 continuation byte
+    private static final byte C_LEAD2 = 3;    // UTF-8 lead byte of a 2-byte sequence
+    private static final byte C_LEAD3 = 4;
+    private static final byte C_LEAD4 = 5;
+    private static final byte C_INVALID = 6;  // Never appears in UTF-8
+
+    private static final byte[] BYTE_CLASS = new byte[256];
+
+    /**
+     * Magic numbers at offset 0, indexed by their first byte.
+     */
+    private static final byte[][][] MAGIC_BY_FIRST_BYTE = new byte[256][][];
+
+    private static final byte[] FTYP = "ftyp".getBytes(US_ASCII);
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            byte c;
+            if (b < 0x20 || b == 0x7F) c = C_CONTROL;
+            else if (b < 0x80) c = C_TEXT;
+            else if (b < 0xC0) c = C_CONT;
+            else if (b < 0xC2) c = C_INVALID;
+            else if (b < 0xE0) c = C_LEAD2;
+            else if (b < 0xF0) c = C_LEAD3;
+            else if (b < 0xF5) c = C_LEAD4;
+            else c = C_INVALID;
+            BYTE_CLASS[b] = c;
+        }
+        for (char ws : new char[]{'\t', '\n', '\r', '\f', '\b', 0x1B})
+            BYTE_CLASS[ws] = C_TEXT;
+
+        addMagic(0xFF, 0xD8, 0xFF);                              // JPEG
+        addMagic(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A);   // PNG
+        addMagic('G', 'I', 'F', '8');                            // GIF
+        addMagic('B', 'M');                                      // BMP
+        addMagic('I', 'I', 0x2A, 0x00);                          // TIFF / DNG
+        addMagic('M', 'M', 0x00, 0x2A);
+        addMagic('R', 'I', 'F', 'F');                            // WEBP, AVI, WAV
+        addMagic(0x1A, 0x45, 0xDF, 0xA3);                        // MKV / WEBM
+        addMagic('O', 'g', 'g', 'S');                            // OGG
+        addMagic('f', 'L', 'a', 'C');                            // FLAC
+        addMagic('I', 'D', '3');                                 // MP3 with ID3
+        addMagic('#', '!', 'A', 'M', 'R');                       // AMR
+        addMagic('%', 'P', 'D', 'F');                            // PDF
+        addMagic('P', 'K', 0x03, 0x04);                          // ZIP, APK, DOCX, EPUB
+        addMagic('R', 'a', 'r', '!');                            // RAR
+        addMagic('7', 'z', 0xBC, 0xAF, 0x27, 0x1C);              // 7z
+        addMagic(0x1F, 0x8B);                                    // GZIP
+        addMagic(0x7F, 'E', 'L', 'F');                           // ELF
+        addMagic('d', 'e', 'x', '\n');                           // DEX
+        addMagic('S', 'Q', 'L', 'i', 't', 'e', ' ', 'f');        // SQLite
+    }
+
+    private static void addMagic(int... magic) {
+        var bytes = new byte[magic.length];
+        for (int i = 0; i < magic.length; i++)
+            bytes[i] = (byte) magic[i];
+
+        var existing = MAGIC_BY_FIRST_BYTE[magic[0]];
+        var merged = new byte[existing == null ? 1 : existing.length + 1][];
+        if (existing != null)
+            System.arraycopy(existing, 0, merged, 0, existing.length);
+        merged[merged.length - 1] = bytes;
+        MAGIC_BY_FIRST_BYTE[magic[0]] = merged;
+    }
+
+    private ContentSniffer() {
+    }
+
+    /**
+     * Guess the content type from the leading bytes of a file.
+     *
+     * @param head Leading bytes of the file, from its position to its limit. At most
+     *             {@link #SNIFF_SIZE} bytes are examined. The buffer is not modified.
+     * @return The guessed type, or {@link Type#UNKNOWN} if {@code head} is empty.
+     */
+    public static Type sniff(ByteBuffer head) {
+        int start = head.position();
+        int end = Math.min(head.limit(), start + SNIFF_SIZE);
+        if (start >= end)
+            return Type.UNKNOWN;
+
+        if (matchesMagic(head, start, end))
+            return Type.BINARY;
+
+        // Byte order marks
+        int b0 = head.get(start) & 0xFF;
+        int b1 = end - start > 1 ? head.get(start + 1) & 0xFF : -1;
+        if ((b0 == 0xFF && b1 == 0xFE) || (b0 == 0xFE && b1 == 0xFF))
+            return Type.TEXT; // UTF-16
+        if (b0 == 0xEF && b1 == 0xBB && end - start > 2 && (head.get(start + 2) & 0xFF) == 0xBF)
+            start += 3; // UTF-8
+
+        if (isUtf8(head, start, end))
+            return classifyText(head, start, end);
+        if (isUtf16WithoutBom(head, start, end))
+            return Type.TEXT;
+        return Type.BINARY;
+    }
+
+    private static boolean matchesMagic(ByteBuffer head, int start, int end) {
+        var candidates = MAGIC_BY_FIRST_BYTE[head.get(start) & 0xFF];
+        if (candidates != null) {
+            for (var magic : candidates) {
+                if (regionMatches(head, start, end, magic))
+                    return true;
+            }
+        }
+        // ISO base media (MP4, MOV, 3GP, HEIC, AVIF): box size followed by `ftyp`
+        return regionMatches(head, start + 4, end, FTYP);
+    }
+
+    private static boolean regionMatches(ByteBuffer head, int offset, int end, byte[] expected) {
+        if (end - offset < expected.length)
+            return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (head.get(offset + i) != expected[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isUtf8(ByteBuffer head, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int numContinuation;
+            switch (BYTE_CLASS[head.get(i) & 0xFF]) {
+                case C_TEXT -> numContinuation = 0;
+                case C_LEAD2 -> numContinuation = 1;
+                case C_LEAD3 -> numContinuation = 2;
+                case C_LEAD4 -> numContinuation = 3;
+                default -> {
+                    return false;
+                }
+            }
+            i++;
+            for (int j = 0; j < numContinuation; j++, i++) {
+                if (i >= end)
+                    return true; // Sequence truncated by the sniff window
+                if (BYTE_CLASS[head.get(i) & 0xFF] != C_CONT)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * UTF-16 text without BOM is mostly ASCII with every other byte being zero.
+     */
+    private static boolean isUtf16WithoutBom(ByteBuffer head, int start, int end) {
+        int numPairs = (end - start) / 2;
+        if (numPairs == 0)
+            return false;
+
+        int zerosEven = 0, zerosOdd = 0;
+        for (int i = 0; i < numPairs; i++) {
+            if (head.get(start + 2 * i) == 0) zerosEven++;
+            if (head.get(start + 2 * i + 1) == 0) zerosOdd++;
+        }
+        // One side zero in most pairs, the other side (almost) never.
+        return (zerosOdd * 10 >= numPairs * 9 && zerosEven == 0)
+                || (zerosEven * 10 >= numPairs * 9 && zerosOdd == 0);
+    }
+
+    private static Type classifyText(ByteBuffer head, int start, int end) {
+        int i = start;
+        while (i < end && isWhitespace(head.get(i)))
+            i++;
+        if (i == end)
+            return Type.TEXT;
+
+        byte first = head.get(i);
+        if (first == '[')
+            return isLrcTag(head, i + 1, end) ? Type.LRC : Type.JSON;
+        if (first == '{')
+            return Type.JSON;
+        if (first == '<') {
+            if (startsWithIgnoreCase(head, i, end, "<?xml"))
+                return Type.XML;
+            if (startsWithIgnoreCase(head, i, end, "<!doctype html")
+                    || startsWithIgnoreCase(head, i, end, "<html"))
+                return Type.HTML;
+            return Type.XML;
+        }
+        return Type.TEXT;
+    }
+
+    /**
+     * LRC lines start with a time tag like `[01:23.45]` or an ID tag like `[ar:Artist]`.
+     */
+    private static boolean isLrcTag(ByteBuffer head, int i, int end) {
+        int numLetters = 0, numDigits = 0;
+        while (i < end) {
+            byte b = head.get(i++);
+            if (b == ':')
+                return (numDigits > 0 && numLetters == 0) || (numLetters > 0 && numLetters <= 6 && numDigits == 0);
+            if (b >= '0' && b <= '9') numDigits++;
+            else if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')) numLetters++;
+            else return false;
+        }
+        return false;
+    }
+
+    private static boolean startsWithIgnoreCase(ByteBuffer head, int i, int end, String prefix) {
+        if (end - i < prefix.length())
+            return false;
+        for (int j = 0; j < prefix.length(); j++) {
+            int b = head.get(i + j);
+            if (b >= 'A' && b <= 'Z')
+                b += 'a' - 'A';
+            if (b != prefix.charAt(j))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
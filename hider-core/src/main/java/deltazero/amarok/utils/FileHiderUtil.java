@@ -0,0 +1,165 @@
+package deltazero.amarok.utils;
+
+import static deltazero.amarok.filehider.ObfuscateEngine.FILENAME_FULL_PROCESS_MARK;
+import static deltazero.amarok.filehider.ObfuscateEngine.FILENAME_HEADER_PROCESS_MARK;
+import static deltazero.amarok.filehider.ObfuscateEngine.FILENAME_NO_PROCESS_MARK;
+import static deltazero.amarok.filehider.ObfuscateEngine.FILENAME_STRIDED_PROCESS_MARK;
+
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import deltazero.amarok.filehider.NameTable;
+import deltazero.amarok.filehider.StridedLayout;
+
+public class FileHiderUtil {
+
+    private final static List<String> COMMON_TEXT_EXTENSION = List.of(".txt", ".md", ".lrc");
+    private final static int ASSUME_IS_TEXT_FILE_SIZE_THRESHOLD_KB = 5 * 1024;
+
+    /**
+     * Obfuscation mark ending an encoded filename, {@code "." + base64(name) + mark}.
+     */
+    public enum Mark {
+        /**
+         * Not an encoded filename.
+         */
+        NONE(""),
+        NO_PROCESS(FILENAME_NO_PROCESS_MARK),
+        FULL_PROCESS(FILENAME_FULL_PROCESS_MARK),
+        HEADER_PROCESS(FILENAME_HEADER_PROCESS_MARK),
+        /**
+         * Followed by the layout, see {@link StridedLayout}.
+         */
+        STRIDED_PROCESS(FILENAME_STRIDED_PROCESS_MARK) {
+            @Override
+            public int getPayloadEnd(String filename) {
+                return filename.lastIndexOf(FILENAME_NO_PROCESS_MARK);
+            }
+        };
+
+        public final String mark;
+
+        Mark(String mark) {
+            this.mark = mark;
+        }
+
+        /**
+         * @return Index of the first payload char of a filename with this mark.
+         */
+        public int getPayloadStart() {
+            return 1;
+        }
+
+        /**
+         * @return Index after the last payload char of a filename with this mark.
+         */
+        public int getPayloadEnd(String filename) {
+            return filename.length() - mark.length();
+        }
+    }
+
+    /**
+     * Classify a filename by its obfuscation mark in a single backward scan, without creating strings.
+     * <p>
+     * The mark is only recognized as the whole tail after the payload: {@code "!amk"} followed by
+     * nothing, {@code "1"}, {@code "2"} or {@code "3_<block>_<stride>"}. The payload must be non-empty Base64, optionally led by the
+     * name table prefix, and the name must start with a dot, as every encoded name does. So
+     * {@code "!amk1"} is never read as {@code "!amk"} plus a trailing char, and a plain name that merely
+     * ends with a mark, e.g. {@code "draft!amk"}, is not taken for an encoded one.
+     */
+    public static Mark matchMark(String filename) {
+        int i = filename.length() - 1;
+        if (i < 0)
+            return Mark.NONE;
+
+        Mark mark;
+        int stridedEnd = skipStridedLayout(filename, i);
+        if (stridedEnd >= 0) {
+            mark = Mark.STRIDED_PROCESS;
+            i = stridedEnd;
+        } else {
+            mark = switch (filename.charAt(i)) {
+                case '1' -> Mark.FULL_PROCESS;
+                case '2' -> Mark.HEADER_PROCESS;
+                default -> Mark.NO_PROCESS;
+            };
+            if (mark != Mark.NO_PROCESS)
+                i--;
+        }
+
+        // "!amk", then at least one payload char, then the dot
+        if (i < 5 || filename.charAt(i) != 'k' || filename.charAt(i - 1) != 'm'
+                || filename.charAt(i - 2) != 'a' || filename.charAt(i - 3) != '!')
+            return Mark.NONE;
+        int payloadEnd = i - 4;
+        for (i = payloadEnd; i >= 1; i--) {
+            char c = filename.charAt(i);
+            if (!isPayloadChar(c) && !(c == NameTable.ID_PREFIX && i == 1 && payloadEnd > 1))
+                return Mark.NONE;
+        }
+        return filename.charAt(0) == '.' ? mark : Mark.NONE;
+    }
+
+    /**
+     * Skip {@code "3_<block>_<stride>"} backwards, from its last char at {@code i}.
+     *
+     * @return Index of the char before it, or -1 if the filename does not end with it.
+     */
+    private static int skipStridedLayout(String filename, int i) {
+        for (int field = 0; field < 2; field++) {
+            int end = i;
+            while (i >= 0 && filename.charAt(i) >= '0' && filename.charAt(i) <= '9')
+                i--;
+            if (i == end || i < 0 || filename.charAt(i) != '_')
+                return -1;
+            i--;
+        }
+        return i >= 0 && filename.charAt(i) == '3' ? i - 1 : -1;
+    }
+
+    /**
+     * @param encodedFilename A filename with a mark, see {@link #matchMark(String)}.
+     * @return Whether the original name is kept in the {@link NameTable} of the directory, rather than encoded.
+     */
+    public static boolean isNameTableId(String encodedFilename) {
+        return encodedFilename.length() > 1 && encodedFilename.charAt(1) == NameTable.ID_PREFIX;
+    }
+
+    /**
+     * URL-safe Base64, with the padding that older encoders may have written.
+     */
+    private static boolean isPayloadChar(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '=';
+    }
+
+    public static boolean checkIsTextFile(String filename) {
+        int idx = filename.lastIndexOf(".");
+        if (idx == -1)
+            return false;
+        return COMMON_TEXT_EXTENSION.contains(filename.substring(idx));
+    }
+
+    /**
+     * Check whether the file is a text file by sniffing its leading bytes.
+     *
+     * @param path Path to the file, only used for logging.
+     * @param head Leading bytes of the file, see {@link ContentSniffer#sniff(ByteBuffer)}.
+     * @param size File size in bytes, used as a fallback when the content type cannot be sniffed.
+     */
+    public static boolean checkIsTextFileEnhanced(Path path, ByteBuffer head, long size) {
+        ContentSniffer.Type type = ContentSniffer.sniff(head);
+
+        if (type == ContentSniffer.Type.UNKNOWN) {
+            // Failed to sniff content type. If the files is smaller than
+            // ASSUME_IS_TEXT_FILE_SIZE_THRESHOLD_KB, assume it is a text file.
+            HiderLog.d("FileHider", String.format("%s: Failed to sniff content type", path.getFileName().toString()));
+            return size / 1024 <= ASSUME_IS_TEXT_FILE_SIZE_THRESHOLD_KB;
+        }
+
+        HiderLog.d("FileHider", String.format("%s: Content type: %s", path.getFileName().toString(), type));
+        return type.isText();
+    }
+}
@@ -1,6 +1,5 @@
 package deltazero.amarok.utils;
 
-import android.util.Log;
 
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
@@ -17,7 +16,7 @@ public class HashUtil {
             BigInteger bi = new BigInteger(1, magnitude);
             return String.format("%0" + (magnitude.length << 1) + "x", bi);
         } catch (NoSuchAlgorithmException e) {
-            Log.w("HashUtil", "Failed to calculate MD5, fallback to raw input: ", e);
+            HiderLog.w("HashUtil", "Failed to calculate MD5, fallback to raw input: ", e);
         }
         return s;
     }
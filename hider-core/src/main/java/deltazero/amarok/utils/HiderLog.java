@@ -0,0 +1,65 @@
+package deltazero.amarok.utils;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Logging adapter of the hider core, which does not depend on the Android framework.
+ * <p>
+ * Mirrors the {@code android.util.Log} methods in use. On device, the app installs a {@link Sink}
+ * forwarding to {@code android.util.Log}. Otherwise, e.g. in benchmarks, warnings and errors
+ * are printed to stderr.
+ */
+public final class HiderLog {
+
+    // Same values as android.util.Log
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public interface Sink {
+        /**
+         * @param tr Throwable to be logged with the message, or null.
+         */
+        void log(int priority, String tag, String msg, Throwable tr);
+    }
+
+    private static volatile Sink sink = (priority, tag, msg, tr) -> {
+        if (priority < WARN)
+            return;
+        if (tr != null) {
+            var stackTrace = new StringWriter();
+            tr.printStackTrace(new PrintWriter(stackTrace));
+            msg = msg + '\n' + stackTrace;
+        }
+        System.err.println(tag + ": " + msg);
+    };
+
+    private HiderLog() {
+    }
+
+    public static void setSink(Sink sink) {
+        HiderLog.sink = sink;
+    }
+
+    public static void d(String tag, String msg) {
+        sink.log(DEBUG, tag, msg, null);
+    }
+
+    public static void i(String tag, String msg) {
+        sink.log(INFO, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg) {
+        sink.log(WARN, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg, Throwable tr) {
+        sink.log(WARN, tag, msg, tr);
+    }
+
+    public static void e(String tag, String msg, Throwable tr) {
+        sink.log(ERROR, tag, msg, tr);
+    }
+}
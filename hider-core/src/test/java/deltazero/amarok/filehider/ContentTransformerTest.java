@@ -0,0 +1,180 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ContentTransformerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] randomBytes(long seed, int length) {
+        var bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] inverted(byte[] bytes) {
+        var inverted = bytes.clone();
+        InversionKernel.invert(inverted, 0, inverted.length);
+        return inverted;
+    }
+
+    private Path newFile(byte[] content) throws IOException {
+        var file = tmp.newFile().toPath();
+        Files.write(file, content);
+        return file;
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Test
+    public void invertsWholeMappedAndStreamedFiles() throws IOException {
+        for (int size : new int[]{0, 1, 4095, 600 * 1024, (int) ContentTransformer.MAP_THRESHOLD + 12345}) {
+            var content = randomBytes(size, size);
+            var file = newFile(content);
+            var chunks = new ArrayList<long[]>();
+            try (var channel = open(file)) {
+                assertEquals(size, ContentTransformer.invertWhole(channel, 0, size, null,
+                        (offset, length, pageCrcs) -> chunks.add(new long[]{offset, length})));
+            }
+            assertArrayEquals("Size " + size, inverted(content), Files.readAllBytes(file));
+
+            // Chunks are checkpointed in order, back to back
+            long expected = 0;
+            for (var chunk : chunks) {
+                assertEquals(expected, chunk[0]);
+                expected += chunk[1];
+            }
+            assertEquals(size, expected);
+        }
+    }
+
+    @Test
+    public void invertsOnlyTheStridedBlocks() throws IOException {
+        var layout = new StridedLayout(4, 16);
+        int size = 100 * 1024 + 7;
+        var content = randomBytes(1, size);
+        var file = newFile(content);
+        try (var channel = open(file)) {
+            ContentTransformer.invertStrided(channel, 0, size, layout, null, null);
+        }
+
+        var expected = content.clone();
+        for (int block = 0; block < size; block += (int) layout.getStrideSize())
+            InversionKernel.invert(expected, block, Math.min(layout.getBlockSize(), size - block));
+        assertArrayEquals(expected, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void resolvesChunkInterruptedAtAnyByte() throws IOException {
+        int length = 3 * ContentTransformer.CHECKPOINT_PAGE_SIZE + 1000;
+        var content = randomBytes(2, length);
+        var done = inverted(content);
+        var pageCrcs = checkpoint(content);
+
+        for (int stop = 0; stop <= length; stop += stop % ContentTransformer.CHECKPOINT_PAGE_SIZE < 2 ? 1 : 61) {
+            // Writes proceed in order, so the chunk is inverted up to where the kill hit
+            var torn = content.clone();
+            System.arraycopy(done, 0, torn, 0, stop);
+            var file = newFile(torn);
+            try (var channel = open(file)) {
+                assertTrue("Stopped at " + stop, ContentTransformer.resolveChunk(channel, 0, length, pageCrcs));
+            }
+            assertArrayEquals("Stopped at " + stop, done, Files.readAllBytes(file));
+        }
+    }
+
+    @Test
+    public void leavesPageMatchingNoCandidateUntouched() throws IOException {
+        int length = 2 * ContentTransformer.CHECKPOINT_PAGE_SIZE;
+        var content = randomBytes(3, length);
+        var pageCrcs = checkpoint(content);
+
+        var changed = content.clone();
+        changed[10] ^= 0x55;
+        var file = newFile(changed);
+        try (var channel = open(file)) {
+            assertFalse(ContentTransformer.resolveChunk(channel, 0, length, pageCrcs));
+        }
+
+        var actual = Files.readAllBytes(file);
+        assertArrayEquals(Arrays.copyOf(changed, ContentTransformer.CHECKPOINT_PAGE_SIZE),
+                Arrays.copyOf(actual, ContentTransformer.CHECKPOINT_PAGE_SIZE));
+        assertArrayEquals(Arrays.copyOfRange(inverted(content), ContentTransformer.CHECKPOINT_PAGE_SIZE, length),
+                Arrays.copyOfRange(actual, ContentTransformer.CHECKPOINT_PAGE_SIZE, length));
+    }
+
+    @Test
+    public void allocatesNothingPerFileWithPooledBuffers() throws IOException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        var file = newFile(randomBytes(4, (int) ContentTransformer.MAP_THRESHOLD + 12345));
+        var journal = new HideJournal(tmp.newFile().getAbsoluteFile());
+        journal.begin(ProcessMethod.HIDE, false);
+        var headBuffers = new BufferPool(8, 1);
+        var streamBuffers = new BufferPool(ContentTransformer.STREAM_BUFFER_SIZE, 1);
+        ContentTransformer.Checkpointer checkpointer =
+                (offset, length, pageCrcs) -> journal.logChunk(file, offset, length, pageCrcs);
+
+        try (var channel = open(file)) {
+            long size = channel.size();
+            long allocated = 0;
+            for (int i = 0; i < 30; i++) {
+                // Allocations of the first runs, e.g. the pooled buffers, are not counted
+                long before = threads.getThreadAllocatedBytes(threadId);
+
+                // The path of a file once opened: header, journal records, then streamed content
+                ByteBuffer head = headBuffers.acquire();
+                channel.read(head, 0);
+                head.flip();
+                journal.logTransform(file, ObfuscateEngine.FILENAME_FULL_PROCESS_MARK, 0, head);
+                InversionKernel.invert(head, 0, head.limit());
+                headBuffers.release(head);
+                ContentTransformer.invertWhole(channel, 0, size, streamBuffers, checkpointer);
+                journal.logTransformDone(file);
+
+                if (i >= 10)
+                    allocated += threads.getThreadAllocatedBytes(threadId) - before;
+            }
+            assertEquals(0, allocated);
+        } finally {
+            journal.close(true);
+        }
+        assertEquals(1, streamBuffers.getNumAllocated());
+    }
+
+    /**
+     * @return Page checksums of the content, as checkpointed before its single chunk is inverted.
+     */
+    private int[] checkpoint(byte[] content) throws IOException {
+        var pageCrcs = new int[1][];
+        try (var channel = open(newFile(content))) {
+            ContentTransformer.invertWhole(channel, 0, content.length, null,
+                    (offset, length, crcs) -> pageCrcs[0] = crcs.clone());
+        }
+        return pageCrcs[0];
+    }
+}
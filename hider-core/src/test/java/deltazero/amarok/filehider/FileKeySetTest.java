@@ -0,0 +1,90 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import deltazero.amarok.utils.HiderLog;
+
+public class FileKeySetTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Key hashed like the Unix file key, by the sum of device and inode numbers, so that hash codes collide.
+     */
+    private record Key(long dev, long ino) {
+        @Override
+        public int hashCode() {
+            return (int) (dev + ino);
+        }
+    }
+
+    @BeforeClass
+    public static void silenceLog() {
+        HiderLog.setSink((priority, tag, msg, tr) -> {
+        });
+    }
+
+    private static Object fileKey(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    @Test
+    public void matchesHashSetThroughGrowthAndRemovals() {
+        var set = new FileKeySet();
+        Set<Key> expected = new HashSet<>();
+        var random = new Random(0);
+        for (int i = 0; i < 200_000; i++) {
+            // Few devices and clustered inodes, as on a real volume
+            var key = new Key(random.nextInt(3), 1 + random.nextInt(20_000));
+            if (random.nextInt(3) == 0)
+                assertEquals(expected.remove(key), set.remove(key));
+            else
+                assertEquals(expected.add(key), set.add(key));
+        }
+        assertEquals(expected.size(), set.size());
+        for (var key : expected)
+            assertFalse(set.add(new Key(key.dev, key.ino)));
+    }
+
+    @Test
+    public void identifiesHardLinksAsOneFile() throws IOException {
+        var file = tmp.newFile("a").toPath();
+        var link = Files.createLink(tmp.getRoot().toPath().resolve("b"), file);
+        var other = tmp.newFile("c").toPath();
+
+        var set = new FileKeySet();
+        assertTrue(set.add(fileKey(file)));
+        assertFalse(set.add(fileKey(link)));
+        assertTrue(set.add(fileKey(other)));
+
+        // Released, the next link may claim it again
+        assertTrue(set.remove(fileKey(link)));
+        assertFalse(set.remove(fileKey(file)));
+        assertTrue(set.add(fileKey(link)));
+    }
+
+    @Test
+    public void neverTakesUnknownKeysForDuplicates() {
+        var set = new FileKeySet();
+        assertTrue(set.add(null));
+        assertTrue(set.add(null));
+        assertFalse(set.remove(null));
+        assertEquals(0, set.size());
+    }
+}
@@ -0,0 +1,73 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Checks the word-wise kernel against the byte-by-byte NOT it replaced.
+ */
+public class InversionKernelTest {
+
+    private static byte[] invertBytewise(byte[] bytes, int from, int to) {
+        var expected = bytes.clone();
+        for (int i = from; i < to; i++)
+            expected[i] = (byte) ~expected[i];
+        return expected;
+    }
+
+    @Test
+    public void matchesBytewiseForEveryAlignmentAndLength() {
+        var random = new Random(0);
+        var bytes = new byte[80];
+        random.nextBytes(bytes);
+        for (int from = 0; from <= 17; from++) {
+            for (int to = from; to <= bytes.length; to++) {
+                var actual = bytes.clone();
+                InversionKernel.invert(ByteBuffer.wrap(actual), from, to);
+                assertArrayEquals("Range [" + from + ", " + to + ")", invertBytewise(bytes, from, to), actual);
+            }
+        }
+    }
+
+    @Test
+    public void matchesBytewiseOnDirectBuffersOfEitherOrder() {
+        var random = new Random(1);
+        var bytes = new byte[4096 + 13];
+        random.nextBytes(bytes);
+        for (var order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            var buffer = ByteBuffer.allocateDirect(bytes.length).order(order);
+            buffer.put(bytes).clear();
+            InversionKernel.invert(buffer, 5, bytes.length - 3);
+
+            var actual = new byte[bytes.length];
+            buffer.get(actual);
+            assertArrayEquals(order.toString(), invertBytewise(bytes, 5, bytes.length - 3), actual);
+        }
+    }
+
+    @Test
+    public void leavesPositionAndLimitUntouched() {
+        var buffer = ByteBuffer.allocate(64);
+        buffer.position(3).limit(40);
+        InversionKernel.invert(buffer, 0, 64);
+        assertEquals(3, buffer.position());
+        assertEquals(40, buffer.limit());
+    }
+
+    @Test
+    public void invertsTwiceToTheOriginal() {
+        var random = new Random(2);
+        var bytes = new byte[1000];
+        random.nextBytes(bytes);
+        var actual = bytes.clone();
+        InversionKernel.invert(actual, 7, 900);
+        InversionKernel.invert(actual, 7, 900);
+        assertArrayEquals(bytes, actual);
+    }
+}
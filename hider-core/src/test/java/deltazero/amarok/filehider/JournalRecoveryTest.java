@@ -0,0 +1,326 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import deltazero.amarok.utils.HiderLog;
+
+/**
+ * Kills hide and unhide runs at every record boundary of the journal, and in the middle of every record,
+ * then checks that rerunning restores the original tree.
+ */
+public class JournalRecoveryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path target;
+    private Path stateDir;
+    private Map<String, String> original;
+
+    /**
+     * Thrown where the process would have been killed. An error, so that no catch of the engine swallows it.
+     */
+    private static class SimulatedCrash extends Error {
+        private static final long serialVersionUID = 1L;
+
+        SimulatedCrash() {
+            super("Simulated crash");
+        }
+    }
+
+    /**
+     * Journal that lets {@code budget} bytes reach the file, then dies on the write that exceeds it.
+     * With a negative budget, it never dies and keeps a copy of everything written instead.
+     */
+    private static class CrashingJournal extends HideJournal {
+        private final long budget;
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private long numWritten;
+
+        CrashingJournal(File file, long budget) {
+            super(file);
+            this.budget = budget;
+        }
+
+        @Override
+        void write(FileChannel channel, ByteBuffer records) throws IOException {
+            if (budget < 0) {
+                for (int i = records.position(); i < records.limit(); i++)
+                    written.write(records.get(i));
+                super.write(channel, records);
+                return;
+            }
+
+            if (numWritten >= budget)
+                throw new SimulatedCrash();
+            int length = (int) Math.min(records.remaining(), budget - numWritten);
+            var part = records.duplicate();
+            part.limit(part.position() + length);
+            super.write(channel, part);
+            numWritten += length;
+            if (length < records.remaining())
+                throw new SimulatedCrash();
+        }
+    }
+
+    @BeforeClass
+    public static void silenceLog() {
+        // Every crash leaves a torn record to warn about
+        HiderLog.setSink((priority, tag, msg, tr) -> {
+        });
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // Same paths for every run, so that the journal of every run has the same layout
+        target = tmp.getRoot().toPath().resolve("target");
+        stateDir = tmp.getRoot().toPath().resolve("state");
+        createTree();
+        original = snapshot(target);
+    }
+
+    @Test
+    public void recoversHideKilledAtEveryRecord() throws Exception {
+        var journal = runRecorded(ProcessMethod.HIDE);
+        for (long budget : getCrashPoints(journal)) {
+            reset();
+            runCrashing(ProcessMethod.HIDE, budget);
+            newEngine(-1).process(Set.of(target), ProcessMethod.HIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+            newEngine(-1).process(Set.of(target), ProcessMethod.UNHIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+            assertEquals("Killed after " + budget + " bytes of journal", original, snapshot(target));
+        }
+    }
+
+    @Test
+    public void recoversUnhideKilledAtEveryRecord() throws Exception {
+        newEngine(-1).process(Set.of(target), ProcessMethod.HIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+        var hidden = snapshot(target);
+        var journal = runRecorded(ProcessMethod.UNHIDE);
+        for (long budget : getCrashPoints(journal)) {
+            reset();
+            newEngine(-1).process(Set.of(target), ProcessMethod.HIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+            assertEquals(hidden, snapshot(target));
+            runCrashing(ProcessMethod.UNHIDE, budget);
+            newEngine(-1).process(Set.of(target), ProcessMethod.UNHIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+            assertEquals("Killed after " + budget + " bytes of journal", original, snapshot(target));
+        }
+    }
+
+    @Test
+    public void recoversParallelHideKilledAtRandom() throws Exception {
+        var journal = runRecorded(ProcessMethod.HIDE);
+        var random = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            long budget = random.nextInt(journal.length);
+            reset();
+            var engine = newEngine(budget);
+            engine.numWorkers = 4;
+            engine.numContentWorkers = 2;
+            try {
+                engine.process(Set.of(target), ProcessMethod.HIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+            } catch (SimulatedCrash ignored) {
+            }
+            newEngine(-1).process(Set.of(target), ProcessMethod.HIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+            newEngine(-1).process(Set.of(target), ProcessMethod.UNHIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+            assertEquals("Killed after " + budget + " bytes of journal", original, snapshot(target));
+        }
+    }
+
+    /**
+     * Run to the end, and restore the tree as it was before.
+     *
+     * @return Bytes the run wrote to its journal.
+     */
+    private byte[] runRecorded(ProcessMethod method) throws Exception {
+        var before = snapshot(target);
+        var journal = new CrashingJournal[1];
+        var engine = new ObfuscateEngine(stateDir.toFile()) {
+            @Override
+            HideJournal openJournal(File file) {
+                journal[0] = new CrashingJournal(file, -1);
+                return journal[0];
+            }
+        };
+        configure(engine);
+        engine.numWorkers = 1;
+        engine.numContentWorkers = 0;
+        engine.process(Set.of(target), method, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+
+        var bytes = journal[0].written.toByteArray();
+        assertTrue("Nothing journaled", bytes.length > 0);
+        // The run must be repeatable for the crash points to fall where they were measured
+        newEngine(-1).process(Set.of(target), method == ProcessMethod.HIDE ? ProcessMethod.UNHIDE : ProcessMethod.HIDE,
+                ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+        assertEquals(before, snapshot(target));
+        return bytes;
+    }
+
+    private void runCrashing(ProcessMethod method, long budget) throws InterruptedException {
+        try {
+            newEngine(budget).process(Set.of(target), method, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, getSettings());
+        } catch (SimulatedCrash ignored) {
+        }
+    }
+
+    /**
+     * @param budget Bytes of journal before the run is killed, or -1 to never kill it.
+     */
+    private ObfuscateEngine newEngine(long budget) {
+        var engine = new ObfuscateEngine(stateDir.toFile()) {
+            @Override
+            HideJournal openJournal(File file) {
+                return budget < 0 ? super.openJournal(file) : new CrashingJournal(file, budget);
+            }
+        };
+        configure(engine);
+        // A single worker walks the tree in the same order every time
+        engine.numWorkers = 1;
+        engine.numContentWorkers = 0;
+        return engine;
+    }
+
+    private void configure(ObfuscateEngine engine) {
+        engine.processHeader = true;
+        engine.processTextFile = true;
+        engine.processTextFileEnhanced = true;
+        engine.stridedLayout = new StridedLayout(4, 16);
+    }
+
+    private int getSettings() {
+        var engine = new ObfuscateEngine(stateDir.toFile());
+        configure(engine);
+        return engine.getSettingsFingerprint();
+    }
+
+    /**
+     * @return Every record boundary of the journal, and the middle of every record.
+     */
+    private static List<Long> getCrashPoints(byte[] journal) throws IOException {
+        var points = new ArrayList<Long>();
+        var in = new DataInputStream(new ByteArrayInputStream(journal));
+        long start = 0;
+        while (in.available() > 0) {
+            skipRecord(in);
+            long end = journal.length - in.available();
+            points.add(start);
+            points.add((start + end) / 2);
+            start = end;
+        }
+        points.add(start);
+        return points;
+    }
+
+    private static void skipRecord(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case 'B' -> in.readByte();
+            case 'X' -> {
+                in.readUTF();
+                in.readUTF();
+                in.readLong();
+                in.skipBytes(in.readUnsignedByte());
+            }
+            case 'K' -> {
+                in.readUTF();
+                in.readLong();
+                in.readInt();
+                in.skipBytes(4 * in.readUnsignedShort());
+            }
+            case 'C', 'D' -> in.readUTF();
+            default -> throw new IOException("Unknown journal record");
+        }
+    }
+
+    private void reset() throws IOException {
+        deleteRecursively(target);
+        deleteRecursively(stateDir);
+        createTree();
+    }
+
+    private void createTree() throws IOException {
+        Files.createDirectories(stateDir);
+        var random = new Random(0);
+        Files.createDirectories(target.resolve("photos/2024/trip"));
+        Files.createDirectories(target.resolve("docs"));
+        Files.createDirectories(target.resolve("empty"));
+
+        write(target.resolve("photos/cover.jpg"), randomBytes(random, 40 * 1024));
+        write(target.resolve("photos/2024/clip.mp4"), randomBytes(random, 160 * 1024));
+        write(target.resolve("photos/2024/trip/beach.png"), randomBytes(random, 9 * 1024));
+        write(target.resolve("photos/2024/trip/[1] beach & sea.jpg"), randomBytes(random, 3 * 1024));
+        write(target.resolve("photos/2024/trip/" + "long name ".repeat(22) + ".jpg"), randomBytes(random, 2 * 1024));
+        write(target.resolve("photos/2024/trip/zero.bin"), new byte[0]);
+
+        // Large enough to be inverted in several chunks
+        var text = new StringBuilder();
+        while (text.length() < 600 * 1024)
+            text.append("Line ").append(text.length()).append(" of a long note\n");
+        write(target.resolve("docs/notes.txt"), text.toString().getBytes(StandardCharsets.UTF_8));
+        write(target.resolve("docs/todo.md"), "- buy milk\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        var bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void write(Path path, byte[] bytes) throws IOException {
+        Files.write(path, bytes);
+    }
+
+    /**
+     * @return Relative path of every entry below the directory, mapped to the hash of its content,
+     * or to "/" for directories.
+     */
+    private static Map<String, String> snapshot(Path dir) throws IOException, NoSuchAlgorithmException {
+        var digest = MessageDigest.getInstance("SHA-256");
+        var entries = new TreeMap<String, String>();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (var path : (Iterable<Path>) paths::iterator) {
+                if (path.equals(dir))
+                    continue;
+                entries.put(dir.relativize(path).toString(),
+                        Files.isDirectory(path) ? "/" : Base64.getEncoder().encodeToString(digest.digest(Files.readAllBytes(path))));
+            }
+        }
+        return entries;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir))
+            return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+}
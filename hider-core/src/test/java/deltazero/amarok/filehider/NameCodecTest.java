@@ -0,0 +1,105 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import deltazero.amarok.utils.FileHiderUtil;
+import deltazero.amarok.utils.FileHiderUtil.Mark;
+
+public class NameCodecTest {
+
+    private static final String[] MARKS = {
+            ObfuscateEngine.FILENAME_NO_PROCESS_MARK,
+            ObfuscateEngine.FILENAME_FULL_PROCESS_MARK,
+            ObfuscateEngine.FILENAME_HEADER_PROCESS_MARK,
+            new StridedLayout(64, 1024).toMark()
+    };
+    private static final Mark[] MATCHED_MARKS = {
+            Mark.NO_PROCESS, Mark.FULL_PROCESS, Mark.HEADER_PROCESS, Mark.STRIDED_PROCESS
+    };
+
+    private static String randomName(Random random) {
+        var name = new StringBuilder();
+        int length = random.nextInt(40);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(4)) {
+                case 0 -> name.append((char) ('a' + random.nextInt(26)));
+                case 1 -> name.append(" .-_!#~".charAt(random.nextInt(7)));
+                case 2 -> name.append((char) (0x80 + random.nextInt(0xD000)));
+                default -> name.appendCodePoint(0x10000 + random.nextInt(0x1000));
+            }
+        }
+        return name.toString();
+    }
+
+    @Test
+    public void encodesLikeTheJdk() {
+        var random = new Random(0);
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        for (int i = 0; i < 10_000; i++) {
+            var name = randomName(random);
+            var mark = MARKS[i % MARKS.length];
+            var expected = "." + encoder.encodeToString(name.getBytes(StandardCharsets.UTF_8)) + mark;
+            assertEquals(name, expected, NameCodec.encode(name, mark));
+        }
+    }
+
+    @Test
+    public void decodesWhatItEncodes() {
+        var random = new Random(1);
+        for (int i = 0; i < 10_000; i++) {
+            var name = randomName(random);
+            if (name.isEmpty())
+                continue;
+            var encoded = NameCodec.encode(name, MARKS[i % MARKS.length]);
+            var mark = FileHiderUtil.matchMark(encoded);
+            assertEquals(encoded, MATCHED_MARKS[i % MARKS.length], mark);
+            assertEquals(encoded, name, NameCodec.decode(encoded, mark));
+        }
+    }
+
+    @Test
+    public void replacesUnpairedSurrogatesLikeGetBytes() {
+        var name = "a\uD800b\uDC00";
+        var encoded = NameCodec.encode(name, ObfuscateEngine.FILENAME_NO_PROCESS_MARK);
+        assertEquals("a?b?", NameCodec.decode(encoded, Mark.NO_PROCESS));
+    }
+
+    @Test
+    public void decodesPaddedNamesOfOlderVersions() {
+        var padded = "." + Base64.getUrlEncoder().encodeToString("ab.jpg".getBytes(StandardCharsets.UTF_8)) + "!amk";
+        assertEquals(Mark.NO_PROCESS, FileHiderUtil.matchMark(padded));
+        assertEquals("ab.jpg", NameCodec.decode(padded, Mark.NO_PROCESS));
+    }
+
+    @Test
+    public void rejectsMalformedPayloads() {
+        // A dangling single char, and padding that does not complete the group
+        assertNull(NameCodec.decode(".YWJjZ!amk", Mark.NO_PROCESS));
+        assertNull(NameCodec.decode(".YQ=!amk", Mark.NO_PROCESS));
+        assertNull(NameCodec.decode(".YQ==YQ!amk", Mark.NO_PROCESS));
+        assertNull(NameCodec.decode(".plain.jpg", Mark.NONE));
+    }
+
+    @Test
+    public void matchesOnlyWholeMarks() {
+        assertEquals(Mark.NO_PROCESS, FileHiderUtil.matchMark(".YQ!amk"));
+        assertEquals(Mark.FULL_PROCESS, FileHiderUtil.matchMark(".YQ!amk1"));
+        assertEquals(Mark.HEADER_PROCESS, FileHiderUtil.matchMark(".YQ!amk2"));
+        assertEquals(Mark.STRIDED_PROCESS, FileHiderUtil.matchMark(".YQ!amk3_64_1024"));
+        assertEquals(Mark.NO_PROCESS, FileHiderUtil.matchMark(".~12!amk"));
+
+        assertEquals(Mark.NONE, FileHiderUtil.matchMark("draft!amk"));
+        assertEquals(Mark.NONE, FileHiderUtil.matchMark(".!amk"));
+        assertEquals(Mark.NONE, FileHiderUtil.matchMark(".YQ!amk4"));
+        assertEquals(Mark.NONE, FileHiderUtil.matchMark(".YQ!amk3_64"));
+        assertEquals(Mark.NONE, FileHiderUtil.matchMark(".Y Q!amk"));
+        assertEquals(Mark.NONE, FileHiderUtil.matchMark(""));
+    }
+}
@@ -0,0 +1,144 @@
+package deltazero.amarok.filehider;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import deltazero.amarok.utils.FileHiderUtil;
+import deltazero.amarok.utils.HiderLog;
+
+public class NameTableTest {
+
+    private static final String MARK = ObfuscateEngine.FILENAME_NO_PROCESS_MARK;
+    private static final List<String> NAMES = List.of(
+            "first " + "x".repeat(200) + ".jpg",
+            "second " + "ü".repeat(120) + ".png",
+            "third " + "y".repeat(250));
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void silenceLog() {
+        HiderLog.setSink((priority, tag, msg, tr) -> {
+        });
+    }
+
+    private static String lookup(NameTable table, String name) {
+        return table.lookup(NameTable.getShortName(name, MARK), FileHiderUtil.Mark.NO_PROCESS);
+    }
+
+    @Test
+    public void looksUpAddedNames() throws IOException {
+        var dir = tmp.newFolder().toPath();
+        var table = new NameTable(dir);
+        for (var name : NAMES)
+            assertTrue(table.add(name));
+        // Adding the same name again is a no-op
+        assertTrue(table.add(NAMES.get(0)));
+        table.close(false);
+
+        var reopened = new NameTable(dir);
+        for (var name : NAMES)
+            assertEquals(name, lookup(reopened, name));
+        assertNull(lookup(reopened, "never added"));
+    }
+
+    @Test
+    public void keepsNoNameInPlaintext() throws IOException {
+        var dir = tmp.newFolder().toPath();
+        var table = new NameTable(dir);
+        assertTrue(table.add(NAMES.get(0)));
+        table.close(false);
+
+        var content = new String(Files.readAllBytes(dir.resolve(NameTable.FILENAME)), ISO_8859_1);
+        assertFalse(content.contains("first"));
+        assertFalse(content.contains("xxxx"));
+    }
+
+    @Test
+    public void dropsOnlyTheTornRecordAtEveryLength() throws IOException {
+        var source = tmp.newFolder().toPath();
+        var table = new NameTable(source);
+        var ends = new long[NAMES.size()];
+        var file = source.resolve(NameTable.FILENAME);
+        for (int i = 0; i < NAMES.size(); i++) {
+            assertTrue(table.add(NAMES.get(i)));
+            ends[i] = Files.size(file);
+        }
+        table.close(false);
+        var bytes = Files.readAllBytes(file);
+
+        for (int length = 0; length <= bytes.length; length++) {
+            var dir = tmp.newFolder().toPath();
+            Files.write(dir.resolve(NameTable.FILENAME), Arrays.copyOf(bytes, length));
+
+            var torn = new NameTable(dir);
+            for (int i = 0; i < NAMES.size(); i++) {
+                var expected = length >= ends[i] ? NAMES.get(i) : null;
+                assertEquals("Cut at " + length, expected, lookup(torn, NAMES.get(i)));
+            }
+
+            // Appending continues after the last whole record
+            var added = "added after the cut " + "z".repeat(220);
+            assertTrue(torn.add(added));
+            torn.close(false);
+            var reopened = new NameTable(dir);
+            assertEquals("Cut at " + length, added, lookup(reopened, added));
+            for (int i = 0; i < NAMES.size(); i++) {
+                var expected = length >= ends[i] ? NAMES.get(i) : null;
+                assertEquals("Cut at " + length, expected, lookup(reopened, NAMES.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsFileWithBadMagic() throws IOException {
+        var dir = tmp.newFolder().toPath();
+        try (var channel = FileChannel.open(dir.resolve(NameTable.FILENAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12}));
+        }
+        var table = new NameTable(dir);
+        assertFalse(table.add(NAMES.get(0)));
+        assertNull(lookup(table, NAMES.get(0)));
+    }
+
+    @Test
+    public void removesTheFileOnlyOnceUnused() throws IOException {
+        var dir = tmp.newFolder().toPath();
+        var table = new NameTable(dir);
+        assertTrue(table.add(NAMES.get(0)));
+        var shortName = dir.resolve(NameTable.getShortName(NAMES.get(0), MARK));
+        Files.createFile(shortName);
+        table.close(true);
+        assertTrue(Files.exists(dir.resolve(NameTable.FILENAME)));
+
+        Files.delete(shortName);
+        new NameTable(dir).close(true);
+        assertFalse(Files.exists(dir.resolve(NameTable.FILENAME)));
+    }
+
+    @Test
+    public void keepsShortNamesWithinTheLimit() {
+        var shortName = NameTable.getShortName(NAMES.get(2), new StridedLayout(64, 1024).toMark());
+        assertTrue(shortName.length() <= NameTable.MAX_FILENAME_LENGTH);
+        assertTrue(FileHiderUtil.isNameTableId(shortName));
+        assertEquals(FileHiderUtil.Mark.STRIDED_PROCESS, FileHiderUtil.matchMark(shortName));
+    }
+}
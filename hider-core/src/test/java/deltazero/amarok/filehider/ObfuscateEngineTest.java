@@ -0,0 +1,148 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import deltazero.amarok.utils.FileHiderUtil;
+import deltazero.amarok.utils.HiderLog;
+
+public class ObfuscateEngineTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path outer, inner, stateDir;
+
+    @BeforeClass
+    public static void silenceLog() {
+        HiderLog.setSink((priority, tag, msg, tr) -> {
+        });
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        outer = tmp.newFolder("outer").toPath();
+        inner = outer.resolve("keep/inner");
+        stateDir = tmp.newFolder("state").toPath();
+        Files.createDirectories(inner);
+        Files.write(outer.resolve("disk.iso"), new byte[]{1, 2, 3});
+        Files.write(outer.resolve("notes.txt"), "notes".getBytes());
+        Files.write(outer.resolve("keep/other.txt"), "other".getBytes());
+        Files.write(inner.resolve("inner.iso"), new byte[]{4, 5, 6});
+    }
+
+    private ObfuscateEngine newEngine() {
+        var engine = new ObfuscateEngine(stateDir.toFile());
+        engine.setTargetRules(Map.of(outer, TargetRules.compile(List.of("exclude *.iso"))));
+        return engine;
+    }
+
+    private Set<String> list(Path dir) throws IOException {
+        try (Stream<Path> entries = Files.list(dir)) {
+            return entries.map(p -> p.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+
+    @Test
+    public void hidesNestedTargetByItsOwnRules() throws Exception {
+        var roots = Set.of(outer, inner);
+        int settings = newEngine().getSettingsFingerprint();
+        newEngine().process(roots, ProcessMethod.HIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, settings);
+
+        // The rules of the outer target do not reach into the inner one
+        var outerNames = list(outer);
+        assertTrue(outerNames.contains("disk.iso"));
+        assertFalse(outerNames.contains("notes.txt"));
+        assertFalse(list(inner).contains("inner.iso"));
+        // The folders leading to the inner target keep their names
+        assertTrue(outerNames.contains("keep"));
+        assertFalse(list(outer.resolve("keep")).contains("other.txt"));
+
+        newEngine().process(roots, ProcessMethod.UNHIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, settings);
+        assertEquals(Set.of("disk.iso", "notes.txt", "keep"), list(outer));
+        assertEquals(Set.of("other.txt", "inner"), list(outer.resolve("keep")));
+        assertArrayEquals(new byte[]{4, 5, 6}, Files.readAllBytes(inner.resolve("inner.iso")));
+        assertArrayEquals("notes".getBytes(), Files.readAllBytes(outer.resolve("notes.txt")));
+    }
+
+    @Test
+    public void removesOnlyTheNoMediaItAdded() throws Exception {
+        var own = tmp.newFolder("own").toPath();
+        Files.createFile(own.resolve(".nomedia"));
+        var roots = Set.of(outer, own);
+        int settings = newEngine().getSettingsFingerprint();
+
+        newEngine().process(roots, ProcessMethod.HIDE, 1, settings);
+        assertTrue(Files.exists(outer.resolve(".nomedia")));
+        // Unhide at any depth removes it
+        newEngine().process(roots, ProcessMethod.UNHIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, settings);
+        assertFalse(Files.exists(outer.resolve(".nomedia")));
+        assertTrue(Files.exists(own.resolve(".nomedia")));
+    }
+
+    @Test
+    public void countsEntriesTheUnhideFailedOn() throws Exception {
+        var roots = Set.of(outer);
+        int settings = newEngine().getSettingsFingerprint();
+        newEngine().process(roots, ProcessMethod.HIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, settings);
+        // A single Base64 char carries no whole byte, so the name cannot be decoded
+        var malformed = outer.resolve(".A" + ObfuscateEngine.FILENAME_NO_PROCESS_MARK);
+        Files.createFile(malformed);
+
+        var engine = newEngine();
+        engine.process(roots, ProcessMethod.UNHIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, settings);
+        assertEquals(1, engine.getNumFailures());
+        assertTrue(Files.exists(malformed));
+
+        Files.delete(malformed);
+        engine.process(roots, ProcessMethod.UNHIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, settings);
+        assertEquals(0, engine.getNumFailures());
+    }
+
+    @Test
+    public void classifiesAgainTheLinkLeftUntouchedForItsTwin() throws Exception {
+        var links = tmp.newFolder("links").toPath();
+        Files.write(links.resolve("a.bin"), new byte[]{7, 8, 9});
+        Files.createLink(links.resolve("b.bin"), links.resolve("a.bin"));
+        var roots = Set.of(links);
+        var engine = newEngine();
+        engine.processHeader = true;
+        int settings = engine.getSettingsFingerprint();
+
+        engine.process(roots, ProcessMethod.HIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, settings);
+        // The content is transformed through one link only, the other is marked as untouched
+        String untouched = null;
+        for (var name : list(links)) {
+            if (FileHiderUtil.matchMark(name) == FileHiderUtil.Mark.NO_PROCESS)
+                untouched = NameCodec.decode(name, FileHiderUtil.Mark.NO_PROCESS);
+        }
+        assertNotNull(untouched);
+        engine.process(roots, ProcessMethod.UNHIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, settings);
+
+        // Without its twin, the manifest must not keep it untouched
+        Files.delete(links.resolve(untouched.equals("a.bin") ? "b.bin" : "a.bin"));
+        engine.process(roots, ProcessMethod.HIDE, ObfuscateEngine.HIDE_DEPTH_UNLIMITED, settings);
+        var names = list(links);
+        assertEquals(1, names.size());
+        assertNotEquals(FileHiderUtil.Mark.NO_PROCESS, FileHiderUtil.matchMark(names.iterator().next()));
+    }
+}
@@ -0,0 +1,122 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ParallelFileWalkerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path root, outside;
+
+    /**
+     * Records the attributes every entry is visited with, by path relative to the root.
+     */
+    private class Recorder implements ParallelFileWalker.Visitor {
+        final Map<String, BasicFileAttributes> files = new ConcurrentHashMap<>();
+
+        @Override
+        public void visitFile(Path file, BasicFileAttributes attrs) {
+            files.put(root.relativize(file).toString(), attrs);
+        }
+
+        @Override
+        public void postVisitDirectory(Path dir) {
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmp.newFolder("root").toPath();
+        outside = tmp.newFolder("outside").toPath();
+        Files.createDirectories(root.resolve("album"));
+        Files.write(root.resolve("album/photo.jpg"), new byte[10]);
+        Files.write(outside.resolve("secret.bin"), new byte[20]);
+        Files.createDirectories(outside.resolve("dir"));
+        Files.write(outside.resolve("dir/other.bin"), new byte[30]);
+
+        Files.createSymbolicLink(root.resolve("inside.lnk"), root.resolve("album/photo.jpg"));
+        Files.createSymbolicLink(root.resolve("album.lnk"), root.resolve("album"));
+        Files.createSymbolicLink(root.resolve("outside.lnk"), outside.resolve("secret.bin"));
+        Files.createSymbolicLink(root.resolve("outside-dir.lnk"), outside.resolve("dir"));
+        Files.createSymbolicLink(root.resolve("dangling.lnk"), root.resolve("missing"));
+    }
+
+    private Recorder walk(ParallelFileWalker.LinkPolicy policy) throws InterruptedException {
+        var walker = new ParallelFileWalker(2);
+        walker.setLinkPolicy(policy);
+        var recorder = new Recorder();
+        walker.walk(List.of(root), recorder);
+        return recorder;
+    }
+
+    @Test
+    public void followsOnlyLinksIntoTheRoots() throws InterruptedException {
+        var files = walk(ParallelFileWalker.LinkPolicy.FOLLOW).files;
+
+        assertTrue(files.get("inside.lnk").isRegularFile());
+        assertEquals(10, files.get("inside.lnk").size());
+        assertTrue(files.get("outside.lnk").isSymbolicLink());
+        assertTrue(files.get("outside-dir.lnk").isSymbolicLink());
+        assertTrue(files.get("dangling.lnk").isSymbolicLink());
+        assertFalse(files.containsKey("outside-dir.lnk/other.bin"));
+        // The linked album is walked once, through whichever path is met first
+        assertEquals(1, files.keySet().stream().filter(f -> f.endsWith("photo.jpg")).count());
+    }
+
+    @Test
+    public void visitsLinksThemselvesByDefault() throws InterruptedException {
+        var files = walk(ParallelFileWalker.LinkPolicy.NOFOLLOW).files;
+        for (var link : new String[]{"inside.lnk", "album.lnk", "outside.lnk", "outside-dir.lnk", "dangling.lnk"})
+            assertTrue(link, files.get(link).isSymbolicLink());
+        assertTrue(files.get("album/photo.jpg").isRegularFile());
+    }
+
+    @Test
+    public void leavesLinksOutWhenSkipped() throws InterruptedException {
+        var files = walk(ParallelFileWalker.LinkPolicy.SKIP).files;
+        assertEquals(List.of("album/photo.jpg"), List.copyOf(files.keySet()));
+    }
+
+    @Test
+    public void replaysOnlyListingsOfDirectoriesModifiedBeforeTheGranularity() throws Exception {
+        var album = root.resolve("album");
+        Files.setLastModifiedTime(album, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        var walker = new ParallelFileWalker(2);
+        var listings = new ParallelFileWalker.Listings();
+        walker.walk(List.of(root), Integer.MAX_VALUE, new Recorder(), listings);
+        listings.seal();
+        assertEquals(1, listings.size());
+
+        // Add an entry to both directories within the same lastModified step, as on FAT
+        for (var dir : List.of(root, album)) {
+            var modified = Files.getLastModifiedTime(dir);
+            Files.write(dir.resolve("added.bin"), new byte[1]);
+            Files.setLastModifiedTime(dir, modified);
+        }
+
+        var recorder = new Recorder();
+        walker.walk(List.of(root), Integer.MAX_VALUE, recorder, listings);
+        // The root was modified just before being listed, so it is listed again
+        assertTrue(recorder.files.containsKey("added.bin"));
+        // The album listing is replayed as recorded
+        assertFalse(recorder.files.containsKey("album/added.bin"));
+        assertTrue(recorder.files.containsKey("album/photo.jpg"));
+    }
+}
@@ -0,0 +1,60 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+
+public class TargetIndexTest {
+
+    @Test
+    public void canonicalizesPrimaryStorageAliases() {
+        assertEquals("/storage/emulated/0/DCIM", TargetIndex.canonicalize("/sdcard/DCIM"));
+        assertEquals("/storage/emulated/0/DCIM", TargetIndex.canonicalize("/storage/self/primary/./DCIM/"));
+        assertEquals("/storage/emulated/0", TargetIndex.canonicalize("/mnt/sdcard"));
+        // Only whole segments are aliases
+        assertEquals("/sdcardx/DCIM", TargetIndex.canonicalize("/sdcardx/DCIM"));
+        assertEquals("/storage/1234-5678/DCIM", TargetIndex.canonicalize("/storage/1234-5678/a/../DCIM"));
+    }
+
+    @Test
+    public void takesAliasesForTheSameTarget() {
+        var index = new TargetIndex();
+        assertTrue(index.add("/sdcard/DCIM"));
+        assertFalse(index.add("/storage/emulated/0/DCIM"));
+        assertEquals(1, index.size());
+        // Queries return the target as it was added
+        assertEquals("/sdcard/DCIM", index.findContaining("/storage/emulated/0/DCIM/Camera"));
+    }
+
+    @Test
+    public void findsContainingAndContainedTargets() {
+        var index = new TargetIndex(List.of("/sdcard/DCIM", "/sdcard/DCIM/Camera", "/sdcard/Music/Old"));
+
+        assertEquals("/sdcard/DCIM", index.findContaining("/sdcard/DCIM/Camera/a.jpg"));
+        assertEquals("/sdcard/Music/Old", index.findContaining("/sdcard/Music/Old"));
+        assertNull(index.findContaining("/sdcard/Music"));
+        assertNull(index.findContaining("/sdcard/DCIMx"));
+
+        assertEquals("/sdcard/Music/Old", index.findContained("/sdcard/Music"));
+        assertEquals("/sdcard/DCIM/Camera", index.findContained("/sdcard/DCIM"));
+        assertNull(index.findContained("/sdcard/DCIM/Camera"));
+        assertNull(index.findContained("/sdcard/Pictures"));
+
+        assertEquals("/sdcard/Music/Old", index.findOverlap("/sdcard/Music"));
+        assertNull(index.findOverlap("/sdcard/Pictures"));
+    }
+
+    @Test
+    public void keepsOnlyOutermostTargets() {
+        var index = new TargetIndex(List.of("/sdcard/DCIM/Camera", "/sdcard/DCIM", "/storage/emulated/0/Music",
+                "/storage/1234-5678/Movies"));
+        assertEquals(Set.of("/sdcard/DCIM", "/storage/emulated/0/Music", "/storage/1234-5678/Movies"),
+                index.getOutermost());
+    }
+}
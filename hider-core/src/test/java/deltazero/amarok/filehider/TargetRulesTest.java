@@ -0,0 +1,147 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+public class TargetRulesTest {
+
+    /**
+     * Attributes of an entry that does not have to exist.
+     */
+    private record Attrs(boolean isDirectory, long size) implements BasicFileAttributes {
+        static Attrs file(long size) {
+            return new Attrs(false, size);
+        }
+
+        static Attrs dir() {
+            return new Attrs(true, 4096);
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(0);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return FileTime.fromMillis(0);
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return FileTime.fromMillis(0);
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !isDirectory;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+
+    private static TargetRules compile(String... lines) {
+        return TargetRules.compile(List.of(lines));
+    }
+
+    private static Path path(String relativePath) {
+        return Paths.get(relativePath);
+    }
+
+    @Test
+    public void excludesNamesAtAnyDepth() {
+        var rules = compile("exclude .thumbnails");
+        assertFalse(rules.accepts(path(".thumbnails"), Attrs.dir()));
+        assertFalse(rules.accepts(path("a/b/.thumbnails"), Attrs.dir()));
+        assertTrue(rules.accepts(path("a/thumbnails"), Attrs.dir()));
+    }
+
+    @Test
+    public void matchesGlobsAgainstTheNameOrThePath() {
+        var rules = compile("exclude *.iso", "exclude cache/*.tmp");
+        assertFalse(rules.accepts(path("disk.iso"), Attrs.file(1)));
+        assertFalse(rules.accepts(path("a/b/disk.iso"), Attrs.file(1)));
+        assertFalse(rules.accepts(path("cache/x.tmp"), Attrs.file(1)));
+        // A path glob is anchored at the target
+        assertTrue(rules.accepts(path("a/cache/x.tmp"), Attrs.file(1)));
+        assertTrue(rules.accepts(path("x.tmp"), Attrs.file(1)));
+    }
+
+    @Test
+    public void matchesExtensionsInAnyCase() {
+        var rules = compile("exclude ext iso, .ZIP");
+        assertFalse(rules.accepts(path("a.ISO"), Attrs.file(1)));
+        assertFalse(rules.accepts(path("a/b.zip"), Attrs.file(1)));
+        assertTrue(rules.accepts(path("iso"), Attrs.file(1)));
+        assertTrue(rules.accepts(path("a.iso.txt"), Attrs.file(1)));
+        // Directories are only matched by name and glob rules
+        assertTrue(rules.accepts(path("backup.zip"), Attrs.dir()));
+    }
+
+    @Test
+    public void boundsSizesWithSuffixes() {
+        var rules = compile("exclude size > 2G");
+        assertTrue(rules.accepts(path("a"), Attrs.file(2L << 30)));
+        assertFalse(rules.accepts(path("a"), Attrs.file((2L << 30) + 1)));
+        assertTrue(rules.accepts(path("a"), Attrs.dir()));
+
+        var includes = compile("include size < 500M");
+        assertTrue(includes.accepts(path("a"), Attrs.file((500L << 20) - 1)));
+        assertFalse(includes.accepts(path("a"), Attrs.file(500L << 20)));
+        assertTrue(compile("include size < 10kb").accepts(path("a"), Attrs.file(10 * 1024 - 1)));
+    }
+
+    @Test
+    public void hidesFilesMatchingAnyIncludeUnlessExcluded() {
+        var rules = compile(
+                "# Photos only, but not the raw ones",
+                "",
+                "include ext jpg,png",
+                "include *.heic",
+                "exclude raw");
+        assertTrue(rules.accepts(path("a.jpg"), Attrs.file(1)));
+        assertTrue(rules.accepts(path("a/b.heic"), Attrs.file(1)));
+        assertFalse(rules.accepts(path("a.mp4"), Attrs.file(1)));
+        assertFalse(rules.accepts(path("raw"), Attrs.dir()));
+        // Includes never skip a directory, only the files in it
+        assertTrue(rules.accepts(path("videos"), Attrs.dir()));
+    }
+
+    @Test
+    public void acceptsEverythingWithoutRules() {
+        var rules = compile("  ", "# nothing");
+        assertTrue(rules.isEmpty());
+        assertTrue(rules.accepts(path("a.iso"), Attrs.file(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void rejectsMalformedRules() {
+        for (var line : new String[]{"hide a", "exclude", "exclude   ", "exclude size 2G", "exclude size > big",
+                "exclude size > -1", "include size < 99999999999G"}) {
+            var e = assertThrows(line, IllegalArgumentException.class, () -> compile(line));
+            assertTrue(e.getMessage(), e.getMessage().contains(line.trim()));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package deltazero.amarok.filehider;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class VolumeGovernorTest {
+
+    private static Path path(String path) {
+        return Paths.get(path);
+    }
+
+    @Test
+    public void takesAliasesForTheSameVolume() {
+        var governor = new VolumeGovernor(List.of(path("/sdcard"), path("/storage/1234-5678")), 4);
+        var primary = governor.forPath(path("/storage/emulated/0/DCIM/a.jpg"));
+        assertSame(primary, governor.forPath(path("/sdcard/DCIM/a.jpg")));
+        assertSame(primary, governor.forPath(path("/storage/self/primary/Music")));
+        assertNotSame(primary, governor.forPath(path("/storage/1234-5678/DCIM")));
+        assertNotSame(primary, governor.forPath(path("/data/local/tmp")));
+    }
+
+    @Test
+    public void matchesNestedMountPointsFirst() {
+        var governor = new VolumeGovernor(List.of(path("/mnt"), path("/mnt/media_rw/1234-5678")), 4);
+        assertNotSame(governor.forPath(path("/mnt/other")), governor.forPath(path("/mnt/media_rw/1234-5678/a")));
+    }
+}